@@ -1,17 +1,13 @@
 package pakahi.excel;
 
 import java.util.HashMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.IntStream;
-
-import static java.util.regex.Pattern.CASE_INSENSITIVE;
 
 
 
 //----------------------------------------------------------------------------------------------------
 /**
  * セルのアドレスを保持・操作するクラスです。
+ * 解析と書き出しは {@link CellReference} を使用します。
  */
 public class Address {
 
@@ -19,11 +15,8 @@ public class Address {
     int column = 1;
     String columnName = "A";
 
-    final int A = 65;
-    final int Alphabet = 26;
-
-    final int MAX_ROW = 1048576;
-    final int MAX_COLUMN = 16384;
+    final int MAX_ROW = CellReference.MAX_ROW;
+    final int MAX_COLUMN = CellReference.MAX_COLUMN;
 
 
     //------------------------------------------------------------------------------------------------
@@ -33,16 +26,15 @@ public class Address {
      */
     public Address(String address) {
 
-        final Pattern pattern = Pattern.compile("^([A-Z]{1,2}|[A-X][A-F][A-D])(\\d+)$", CASE_INSENSITIVE);
-        Matcher m = pattern.matcher(address);
+        long reference = CellReference.parse(address);
 
-        if( ! m.find()) {
+        if(reference == CellReference.INVALID) {
             return;
         }
 
-        columnName = m.group(1);
-        column = parseColumn(columnName);
-        row = Integer.parseInt(m.group(2));
+        row = CellReference.row(reference);
+        column = CellReference.column(reference);
+        columnName = CellReference.columnName(column);
 
     }
     //------------------------------------------------------------------------------------------------
@@ -114,7 +106,7 @@ public class Address {
             column = MAX_COLUMN;
         }
 
-        columnName = toColumnName(column);
+        columnName = CellReference.columnName(column);
 
         return this;
 
@@ -126,7 +118,7 @@ public class Address {
      */
     public String getColumnName() {
 
-        return toColumnName(column);
+        return columnName;
 
     }
     //------------------------------------------------------------------------------------------------
@@ -136,7 +128,7 @@ public class Address {
      */
     public String getA1() {
 
-        return columnName + row;
+        return CellReference.toA1(row, column);
 
     }
     //------------------------------------------------------------------------------------------------
@@ -175,29 +167,26 @@ public class Address {
 
     }
     //------------------------------------------------------------------------------------------------
-    private int parseColumn(String column) {
+    /**
+     * A1 形式のアドレスを long 型のセルの参照に変換します。オブジェクトを生成しません。
+     * コンストラクタと同じく、アドレスの形式が正しくない場合は A1 として扱います。
+     * @param address A1 形式のアドレス
+     * @return セルの参照（{@link CellReference}）
+     */
+    static long reference(String address) {
 
-        return IntStream.range(0, column.length())
-                      .mapToObj(i -> ((int)column.charAt(i) - A + 1) * (int)Math.pow(Alphabet, column.length() - i - 1))
-                      .reduce(Integer::sum).orElse(1);
+        long reference = CellReference.parse(address);
+        return reference != CellReference.INVALID ? reference : CellReference.of(1, 1);
 
     }
     //------------------------------------------------------------------------------------------------
-    private String toColumnName(int c) {
-
-        String t = "";
-
-        do {
-            int mod = (c % Alphabet) + A - 1;
-            c = c / Alphabet;
-            t = (char)mod + t;
-        } while(c > 26);
-
-        if(c > 0) {
-            t = (char)(c + A - 1) + t;
-        }
+    /**
+     * このアドレスを long 型のセルの参照で返します。
+     * @return セルの参照（{@link CellReference}）
+     */
+    public long getReference() {
 
-        return t;
+        return CellReference.of(row, column);
 
     }
     //------------------------------------------------------------------------------------------------
@@ -0,0 +1,396 @@
+package pakahi.excel;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * パスワードによる Agile 暗号化（MS-OFFCRYPTO 2.3.4.10 ～ 2.3.4.15、AES-256・SHA-512）を行います。
+ * パスワードから鍵を導出する処理（ハッシュの繰り返し）は {@link EncryptionKeyCache} により使い回せます。
+ * 使い回すのはパスワードの salt と繰り返し後のハッシュだけで、データを暗号化する鍵・salt・IV はファイルごとに生成します。
+ * インスタンスは 1 ファイル分で、パッケージを書き込んだ後に HMAC を含む EncryptionInfo を返します。
+ */
+final class AgileEncryption {
+
+    static final int DEFAULT_SPIN_COUNT = 100000;
+    static final int SEGMENT_SIZE = 4096;
+
+    private static final int KEY_BYTES = 32;
+    private static final int BLOCK_SIZE = 16;
+    private static final int SALT_SIZE = 16;
+    private static final int HASH_SIZE = 64;
+
+    // 各値を暗号化する鍵を導出するためのブロックキー
+    private static final byte[] VERIFIER_HASH_INPUT = {(byte)0xfe, (byte)0xa7, (byte)0xd2, (byte)0x76, (byte)0x3b, (byte)0x4b, (byte)0x9e, (byte)0x79};
+    private static final byte[] VERIFIER_HASH_VALUE = {(byte)0xd7, (byte)0xaa, (byte)0x0f, (byte)0x6d, (byte)0x30, (byte)0x61, (byte)0x34, (byte)0x4e};
+    private static final byte[] KEY_VALUE = {(byte)0x14, (byte)0x6e, (byte)0x0b, (byte)0xe7, (byte)0xab, (byte)0xac, (byte)0xd0, (byte)0xd6};
+    private static final byte[] HMAC_KEY = {(byte)0x5f, (byte)0xb2, (byte)0xad, (byte)0x01, (byte)0x0c, (byte)0xb9, (byte)0xe1, (byte)0xf6};
+    private static final byte[] HMAC_VALUE = {(byte)0xa0, (byte)0x67, (byte)0x7f, (byte)0x02, (byte)0xb2, (byte)0x2c, (byte)0x84, (byte)0x33};
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    // 並列に暗号化するときに 1 つの処理で暗号化するセグメントの数と、同時に処理する数の上限
+    private static final int BATCH = 64;
+    private static final int WINDOW = 16;
+
+    private final int spinCount;
+    private final byte[] passwordSalt;
+    private final byte[] encryptedVerifierHashInput;
+    private final byte[] encryptedVerifierHashValue;
+    private final byte[] encryptedKeyValue;
+
+    // ファイルごとに生成する値
+    private final byte[] secretKey = random(KEY_BYTES);
+    private final byte[] keySalt = random(SALT_SIZE);
+    private final byte[] hmacKey = random(HASH_SIZE);
+    private byte[] hmacValue;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードから鍵を導出し、1 ファイル分の暗号化の準備をします。
+     * @param password パスワード
+     * @param spinCount ハッシュの繰り返し回数
+     * @param cache 導出した鍵のキャッシュ。null の場合は毎回導出する
+     * @throws GeneralSecurityException 暗号化に失敗した場合
+     */
+    AgileEncryption(String password, int spinCount, EncryptionKeyCache cache) throws GeneralSecurityException {
+
+        this.spinCount = spinCount;
+
+        PasswordKey passwordKey = cache != null ? cache.get(password, spinCount) : PasswordKey.derive(password, spinCount);
+        byte[] verifier = random(SALT_SIZE);
+
+        try {
+            // パスワードの検証値と、データを暗号化する鍵をパスワードから導出した鍵で暗号化する
+            passwordSalt = passwordKey.salt.clone();
+            encryptedVerifierHashInput = encrypt(passwordKey.key(VERIFIER_HASH_INPUT), passwordSalt, verifier);
+            encryptedVerifierHashValue = encrypt(passwordKey.key(VERIFIER_HASH_VALUE), passwordSalt, sha512(verifier));
+            encryptedKeyValue = encrypt(passwordKey.key(KEY_VALUE), passwordSalt, secretKey);
+
+        } finally {
+            passwordKey.clear();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * EncryptedPackage ストリームのバイト数を返します。
+     * @param size パッケージのバイト数
+     * @return ストリームのバイト数
+     */
+    static long getPackageSize(long size) {
+
+        return 8 + (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パッケージを 4096 バイトのセグメントごとに暗号化し、EncryptedPackage ストリームとして書き込みます。
+     * 先頭にはパッケージのバイト数（8 バイト）を置きます。Executor があれば複数のセグメントをまとめて並列に暗号化し、
+     * 書き込みの順番で HMAC を計算します。同時に保持する暗号化済みのデータは一定の大きさまでです。
+     * @param bytes パッケージのバイト配列
+     * @param length パッケージのバイト数
+     * @param output 出力ストリーム
+     * @param executor 並列に暗号化するための Executor。null の場合は順に暗号化
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void writePackage(byte[] bytes, int length, OutputStream output, Executor executor) throws IOException {
+
+        Mac mac;
+        try {
+            mac = Mac.getInstance("HmacSHA512");
+            mac.init(new SecretKeySpec(hmacKey, "HmacSHA512"));
+        } catch(GeneralSecurityException ex) {
+            throw new WorkbookException(ex);
+        }
+
+        byte[] size = new byte[8];
+        for(int i = 0; i < 8; i++) {
+            size[i] = (byte)((long)length >>> (i * 8));
+        }
+        output.write(size);
+        mac.update(size);
+
+        int segments = (length + SEGMENT_SIZE - 1) / SEGMENT_SIZE;
+
+        if(executor == null) {
+            for(int i = 0; i < segments; i += BATCH) {
+                byte[] data = encryptSegments(bytes, length, i, Math.min(BATCH, segments - i));
+                output.write(data);
+                mac.update(data);
+            }
+
+        } else {
+            Deque<CompletableFuture<byte[]>> results = new ArrayDeque<>();
+            int next = 0;
+
+            try {
+                while(next < segments || ! results.isEmpty()) {
+                    while(next < segments && results.size() < WINDOW) {
+                        int first = next;
+                        int count = Math.min(BATCH, segments - first);
+                        results.add(CompletableFuture.supplyAsync(() -> encryptSegments(bytes, length, first, count), executor));
+                        next += count;
+                    }
+
+                    byte[] data = results.poll().join();
+                    output.write(data);
+                    mac.update(data);
+                }
+
+            } catch(CompletionException ex) {
+                throw ex.getCause() instanceof RuntimeException ? (RuntimeException)ex.getCause() : new WorkbookException(ex.getCause());
+            }
+        }
+
+        hmacValue = mac.doFinal();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * EncryptionInfo ストリームのバイト数を返します。
+     * @return ストリームのバイト数
+     */
+    int getInfoSize() {
+
+        // 各値の長さは決まっているので、HMAC の代わりに 0 を入れて数える
+        return info(new byte[HASH_SIZE], new byte[HASH_SIZE]).length;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * EncryptionInfo ストリームの内容を返します。{@link #writePackage} の後に呼び出します。
+     * @return ストリームの内容
+     */
+    byte[] getInfo() {
+
+        if(hmacValue == null) {
+            throw new IllegalStateException("The package has not been written.");
+        }
+
+        try {
+            return info(encrypt(secretKey, iv(keySalt, HMAC_KEY), hmacKey), encrypt(secretKey, iv(keySalt, HMAC_VALUE), hmacValue));
+        } catch(GeneralSecurityException ex) {
+            throw new WorkbookException(ex);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ファイルごとの鍵を 0 で上書きします。
+     */
+    void clear() {
+
+        Arrays.fill(secretKey, (byte)0);
+        Arrays.fill(hmacKey, (byte)0);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private byte[] info(byte[] encryptedHmacKey, byte[] encryptedHmacValue) {
+
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\r\n"
+            + "<encryption xmlns=\"http://schemas.microsoft.com/office/2006/encryption\""
+            + " xmlns:p=\"http://schemas.microsoft.com/office/2006/keyEncryptor/password\""
+            + " xmlns:c=\"http://schemas.microsoft.com/office/2006/keyEncryptor/certificate\">"
+            + "<keyData" + parameters(keySalt) + "/>"
+            + "<dataIntegrity encryptedHmacKey=\"" + base64(encryptedHmacKey) + "\" encryptedHmacValue=\"" + base64(encryptedHmacValue) + "\"/>"
+            + "<keyEncryptors><keyEncryptor uri=\"http://schemas.microsoft.com/office/2006/keyEncryptor/password\">"
+            + "<p:encryptedKey spinCount=\"" + spinCount + "\"" + parameters(passwordSalt)
+            + " encryptedVerifierHashInput=\"" + base64(encryptedVerifierHashInput) + "\""
+            + " encryptedVerifierHashValue=\"" + base64(encryptedVerifierHashValue) + "\""
+            + " encryptedKeyValue=\"" + base64(encryptedKeyValue) + "\"/>"
+            + "</keyEncryptor></keyEncryptors></encryption>";
+
+        ByteArrayOutputStream info = new ByteArrayOutputStream();
+        // バージョン 4.4、フラグ 0x40（Agile）
+        info.write(new byte[] {4, 0, 4, 0, 0x40, 0, 0, 0}, 0, 8);
+        info.writeBytes(xml.getBytes(StandardCharsets.UTF_8));
+
+        return info.toByteArray();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 連続するセグメントを暗号化します。最後のセグメントはブロックの大きさまで 0 で埋めます。
+     */
+    private byte[] encryptSegments(byte[] bytes, int size, int first, int count) {
+
+        int offset = first * SEGMENT_SIZE;
+        int length = Math.min(count * SEGMENT_SIZE, size - offset);
+        byte[] data = new byte[(length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE];
+
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+            SecretKeySpec key = new SecretKeySpec(secretKey, "AES");
+
+            for(int i = 0; i < count; i++) {
+                int p = i * SEGMENT_SIZE;
+                int n = Math.min(SEGMENT_SIZE, length - p);
+                cipher.init(Cipher.ENCRYPT_MODE, key, new IvParameterSpec(iv(keySalt, segmentIndex(first + i))));
+
+                if(n % BLOCK_SIZE == 0) {
+                    cipher.doFinal(bytes, offset + p, n, data, p);
+                } else {
+                    byte[] last = new byte[data.length - p];
+                    System.arraycopy(bytes, offset + p, last, 0, n);
+                    cipher.doFinal(last, 0, last.length, data, p);
+                }
+            }
+
+        } catch(GeneralSecurityException ex) {
+            throw new WorkbookException(ex);
+        }
+
+        return data;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static String parameters(byte[] salt) {
+
+        return " saltSize=\"" + SALT_SIZE + "\" blockSize=\"" + BLOCK_SIZE + "\" keyBits=\"" + KEY_BYTES * 8 + "\" hashSize=\"" + HASH_SIZE + "\""
+            + " cipherAlgorithm=\"AES\" cipherChaining=\"ChainingModeCBC\" hashAlgorithm=\"SHA512\" saltValue=\"" + base64(salt) + "\"";
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] encrypt(byte[] key, byte[] iv, byte[] value) throws GeneralSecurityException {
+
+        Cipher cipher = Cipher.getInstance("AES/CBC/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(Arrays.copyOf(iv, BLOCK_SIZE)));
+
+        // ブロックの大きさの倍数になるように 0 で埋める
+        return cipher.doFinal(Arrays.copyOf(value, (value.length + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] iv(byte[] salt, byte[] blockKey) throws GeneralSecurityException {
+
+        MessageDigest sha = MessageDigest.getInstance("SHA-512");
+        sha.update(salt);
+        sha.update(blockKey);
+        return Arrays.copyOf(sha.digest(), BLOCK_SIZE);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] segmentIndex(int i) {
+
+        return new byte[] {(byte)i, (byte)(i >>> 8), (byte)(i >>> 16), (byte)(i >>> 24)};
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] sha512(byte[] value) throws GeneralSecurityException {
+
+        return MessageDigest.getInstance("SHA-512").digest(value);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] random(int length) {
+
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static String base64(byte[] bytes) {
+
+        return Base64.getEncoder().encodeToString(bytes);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードの salt と、パスワードのハッシュを繰り返した結果（H<sub>n</sub>）です。
+     */
+    static final class PasswordKey {
+
+        final byte[] salt;
+        final byte[] hash;
+
+        //--------------------------------------------------------------------------------------------
+        private PasswordKey(byte[] salt, byte[] hash) {
+
+            this.salt = salt;
+            this.hash = hash;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        /**
+         * 新しい salt でパスワードから鍵を導出します。
+         * @param password パスワード
+         * @param spinCount ハッシュの繰り返し回数
+         * @return 導出した鍵
+         * @throws GeneralSecurityException ハッシュ関数が使えない場合
+         */
+        static PasswordKey derive(String password, int spinCount) throws GeneralSecurityException {
+
+            byte[] salt = random(SALT_SIZE);
+            MessageDigest sha = MessageDigest.getInstance("SHA-512");
+
+            sha.update(salt);
+            byte[] hash = sha.digest(password.getBytes(StandardCharsets.UTF_16LE));
+
+            byte[] iterator = new byte[4];
+            for(int i = 0; i < spinCount; i++) {
+                iterator[0] = (byte)i;
+                iterator[1] = (byte)(i >>> 8);
+                iterator[2] = (byte)(i >>> 16);
+                iterator[3] = (byte)(i >>> 24);
+                sha.update(iterator);
+                sha.update(hash);
+                byte[] next = sha.digest();
+                Arrays.fill(hash, (byte)0);
+                hash = next;
+            }
+
+            return new PasswordKey(salt, hash);
+
+        }
+        //--------------------------------------------------------------------------------------------
+        /*
+         * ブロックキーに対応する AES の鍵を返します。
+         */
+        private byte[] key(byte[] blockKey) throws GeneralSecurityException {
+
+            MessageDigest sha = MessageDigest.getInstance("SHA-512");
+            sha.update(hash);
+            sha.update(blockKey);
+            return Arrays.copyOf(sha.digest(), KEY_BYTES);
+
+        }
+        //--------------------------------------------------------------------------------------------
+        PasswordKey copy() {
+
+            return new PasswordKey(salt.clone(), hash.clone());
+
+        }
+        //--------------------------------------------------------------------------------------------
+        void clear() {
+
+            Arrays.fill(salt, (byte)0);
+            Arrays.fill(hash, (byte)0);
+
+        }
+        //--------------------------------------------------------------------------------------------
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,270 @@
+package pakahi.excel;
+
+import java.nio.charset.StandardCharsets;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * セルの参照（行番号・列番号）を long 型の値として扱うためのメソッドを持つクラスです。
+ * 上位 32 ビットに行番号、下位 32 ビットに列番号を格納します。
+ * A1 形式の文字列の解析と書き出しは、オブジェクトを生成せずに行います（列名は 1 ～ 16384 の全てを事前に用意しています）。
+ */
+public final class CellReference {
+
+    /** シートの最大行番号 */
+    public static final int MAX_ROW = 1048576;
+
+    /** シートの最大列番号（XFD） */
+    public static final int MAX_COLUMN = 16384;
+
+    /** 解析に失敗したことを表す値 */
+    public static final long INVALID = -1L;
+
+    private static final String[] COLUMN_NAMES = new String[MAX_COLUMN + 1];
+    private static final byte[][] COLUMN_BYTES = new byte[MAX_COLUMN + 1][];
+
+    static {
+        for(int c = 1; c <= MAX_COLUMN; c++) {
+            char[] name = new char[c <= 26 ? 1 : c <= 702 ? 2 : 3];
+            for(int i = name.length - 1, n = c; i >= 0; i--, n = (n - 1) / 26) {
+                name[i] = (char)('A' + (n - 1) % 26);
+            }
+            COLUMN_NAMES[c] = new String(name);
+            COLUMN_BYTES[c] = COLUMN_NAMES[c].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+
+    //------------------------------------------------------------------------------------------------
+    private CellReference() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行番号と列番号を long 型の値にまとめます。
+     * @param row 行番号
+     * @param column 列番号
+     * @return セルの参照
+     */
+    public static long of(int row, int column) {
+
+        return ((long)row << 32) | (column & 0xffffffffL);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルの参照から行番号を返します。
+     * @param reference セルの参照
+     * @return 行番号
+     */
+    public static int row(long reference) {
+
+        return (int)(reference >>> 32);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルの参照から列番号を返します。
+     * @param reference セルの参照
+     * @return 列番号
+     */
+    public static int column(long reference) {
+
+        return (int)reference;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * A1 形式のアドレスを解析します。列名の大文字・小文字は区別せず、絶対参照の $ は無視します。
+     * @param address A1 形式のアドレス
+     * @return セルの参照。アドレスの形式が正しくない場合、またはシートの範囲外の場合は {@link #INVALID}
+     */
+    public static long parse(CharSequence address) {
+
+        return address == null ? INVALID : parse(address, 0, address.length());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字列の一部を A1 形式のアドレスとして解析します。
+     * @param address A1 形式のアドレスを含む文字列
+     * @param start 開始位置
+     * @param end 終了位置（この位置の文字は含まない）
+     * @return セルの参照。アドレスの形式が正しくない場合、またはシートの範囲外の場合は {@link #INVALID}
+     */
+    public static long parse(CharSequence address, int start, int end) {
+
+        int i = start;
+
+        if(i < end && address.charAt(i) == '$') {
+            i++;
+        }
+
+        int column = 0;
+        int letters = i;
+
+        for(; i < end; i++) {
+            int c = address.charAt(i) | 0x20;
+            if(c < 'a' || c > 'z') {
+                break;
+            }
+            column = column * 26 + (c - 'a' + 1);
+            if(column > MAX_COLUMN) {
+                return INVALID;
+            }
+        }
+
+        if(i == letters) {
+            return INVALID;
+        }
+
+        if(i < end && address.charAt(i) == '$') {
+            i++;
+        }
+
+        int row = 0;
+        int digits = i;
+
+        for(; i < end; i++) {
+            char c = address.charAt(i);
+            if(c < '0' || c > '9') {
+                return INVALID;
+            }
+            row = row * 10 + (c - '0');
+            if(row > MAX_ROW) {
+                return INVALID;
+            }
+        }
+
+        if(i == digits || row < 1) {
+            return INVALID;
+        }
+
+        return of(row, column);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 列名を解析します。列名の大文字・小文字は区別しません。
+     * @param name 列名
+     * @return 列番号。列名が正しくない場合、またはシートの範囲外の場合は 0
+     */
+    public static int parseColumn(CharSequence name) {
+
+        int column = 0;
+
+        for(int i = 0; i < name.length(); i++) {
+            int c = name.charAt(i) | 0x20;
+            if(c < 'a' || c > 'z') {
+                return 0;
+            }
+            column = column * 26 + (c - 'a' + 1);
+            if(column > MAX_COLUMN) {
+                return 0;
+            }
+        }
+
+        return column;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 列番号に対応する列名を返します。
+     * @param column 列番号（1 ～ 16384）
+     * @return 列名
+     */
+    public static String columnName(int column) {
+
+        return COLUMN_NAMES[column];
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行番号と列番号を A1 形式の文字列で返します。
+     * @param row 行番号
+     * @param column 列番号（1 ～ 16384）
+     * @return A1 形式のアドレス
+     */
+    public static String toA1(int row, int column) {
+
+        byte[] b = new byte[10];
+        return new String(b, 0, write(row, column, b, 0), StandardCharsets.US_ASCII);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行番号と列番号を A1 形式で、バイト配列に ASCII 文字として書き込みます。
+     * 配列には最大 10 バイト（列名 3 文字・行番号 7 桁）を書き込みます。
+     * @param row 行番号（1 ～ 1048576）
+     * @param column 列番号（1 ～ 16384）
+     * @param buffer 書き込み先の配列
+     * @param offset 書き込みを開始する位置
+     * @return 書き込んだ後の位置
+     */
+    public static int write(int row, int column, byte[] buffer, int offset) {
+
+        byte[] name = COLUMN_BYTES[column];
+        for(byte b : name) {
+            buffer[offset++] = b;
+        }
+
+        return writeRow(row, buffer, offset);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行番号と列番号を A1 形式で、文字の配列に書き込みます。
+     * 配列には最大 10 文字（列名 3 文字・行番号 7 桁）を書き込みます。
+     * @param row 行番号（1 ～ 1048576）
+     * @param column 列番号（1 ～ 16384）
+     * @param buffer 書き込み先の配列
+     * @param offset 書き込みを開始する位置
+     * @return 書き込んだ後の位置
+     */
+    public static int write(int row, int column, char[] buffer, int offset) {
+
+        String name = COLUMN_NAMES[column];
+        name.getChars(0, name.length(), buffer, offset);
+        offset += name.length();
+
+        int digits = digits(row);
+        for(int i = offset + digits - 1; i >= offset; i--, row /= 10) {
+            buffer[i] = (char)('0' + row % 10);
+        }
+
+        return offset + digits;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行番号をバイト配列に ASCII 文字として書き込みます。
+     * @param row 行番号（0 以上）
+     * @param buffer 書き込み先の配列
+     * @param offset 書き込みを開始する位置
+     * @return 書き込んだ後の位置
+     */
+    public static int writeRow(int row, byte[] buffer, int offset) {
+
+        int digits = digits(row);
+        for(int i = offset + digits - 1; i >= offset; i--, row /= 10) {
+            buffer[i] = (byte)('0' + row % 10);
+        }
+
+        return offset + digits;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int digits(int n) {
+
+        int digits = 1;
+        while(n >= 10) {
+            n /= 10;
+            digits++;
+        }
+        return digits;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
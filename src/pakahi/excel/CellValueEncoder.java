@@ -0,0 +1,528 @@
+package pakahi.excel;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * セルに記入する値を、Excel の内部表現の文字列として再利用可能なバッファに書き込みます。
+ * 数値と日時はセルごとにオブジェクトを生成せずに変換されます。スレッドセーフではありません。
+ */
+final class CellValueEncoder {
+
+    // 整数部と小数部の桁が double で正確に表現できる上限（2^53 未満）
+    private static final double EXACT = 9.0e15;
+
+    // 小数点以下をこの桁数まで書くときは指数表記を使わない
+    private static final int PLAIN_FRACTION = 17;
+
+    // Schubfach 法で使う 10^-k（k = K_MIN ～ K_MAX）の近似値。
+    // 10^-k = β × 2^r（2^125 ≦ β < 2^126）とし、floor(β) + 1 の上位 63 ビットと下位 63 ビットを交互に並べる
+    private static final int K_MIN = -324;
+    private static final int K_MAX = 292;
+    private static final long[] G = new long[2 * (K_MAX - K_MIN + 1)];
+
+    private static final long MASK_63 = (1L << 63) - 1;
+    private static final long MASK_32 = (1L << 32) - 1;
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(63).subtract(BigInteger.ONE);
+        for(int k = K_MIN; k <= K_MAX; k++) {
+            BigInteger g;
+            if(k <= 0) {
+                BigInteger n = BigInteger.TEN.pow(-k);
+                int shift = 126 - n.bitLength();
+                g = shift >= 0 ? n.shiftLeft(shift) : n.shiftRight(-shift);
+            } else {
+                BigInteger d = BigInteger.TEN.pow(k);
+                g = BigInteger.ONE.shiftLeft(125 + d.bitLength()).divide(d);
+            }
+            g = g.add(BigInteger.ONE);
+            G[2 * (k - K_MIN)] = g.shiftRight(63).longValue();
+            G[2 * (k - K_MIN) + 1] = g.and(mask).longValue();
+        }
+    }
+
+    private final byte[] buffer = new byte[40];
+    private int length;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込まれた値のバイト数を返します。
+     * @return バイト数
+     */
+    int length() {
+
+        return length;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込まれた値を ASCII のバイト列として返します。有効な範囲は先頭から {@link #length()} までです。
+     * @return 内部のバッファ
+     */
+    byte[] getBytes() {
+
+        return buffer;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込まれた値を文字の配列にコピーします。
+     * @param chars コピー先の配列
+     * @return 文字数
+     */
+    int getChars(char[] chars) {
+
+        for(int i = 0; i < length; i++) {
+            chars[i] = (char)buffer[i];
+        }
+        return length;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込まれた値を文字列として返します。
+     * @return 文字列
+     */
+    @Override
+    public String toString() {
+
+        return new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    CellValueEncoder encode(boolean value) {
+
+        length = 0;
+        buffer[length++] = (byte)(value ? '1' : '0');
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    CellValueEncoder encode(long value) {
+
+        length = 0;
+        appendLong(value);
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 元の値に戻せる最短の 10 進数として書き込みます（Schubfach 法）。
+     * 最短の桁が複数あれば元の値に最も近いものを使います。小数点以下が 17 桁を超える値と 9.0E15 以上の値は指数表記にします。
+     */
+    CellValueEncoder encode(double value) {
+
+        length = 0;
+
+        if(Double.isNaN(value) || Double.isInfinite(value)) {
+            appendAscii(Double.toString(value));
+            return this;
+        }
+
+        if(value == 0) {
+            buffer[length++] = '0';
+            return this;
+        }
+
+        double a = Math.abs(value);
+
+        if(a < EXACT && a == Math.rint(a)) {
+            appendLong((long)value);
+            return this;
+        }
+
+        if(value < 0) {
+            buffer[length++] = '-';
+        }
+
+        long bits = Double.doubleToRawLongBits(a);
+        int exponent = (int)(bits >>> 52);
+        long t = bits & ((1L << 52) - 1);
+
+        shortest(exponent != 0 ? exponent - 1075 : -1074, exponent != 0 ? (1L << 52) | t : t);
+
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * float 型として元の値に戻せる最短の 10 進数として書き込みます（Schubfach 法）。
+     */
+    CellValueEncoder encode(float value) {
+
+        length = 0;
+
+        if(Float.isNaN(value) || Float.isInfinite(value)) {
+            appendAscii(Float.toString(value));
+            return this;
+        }
+
+        if(value == 0) {
+            buffer[length++] = '0';
+            return this;
+        }
+
+        double a = Math.abs((double)value);
+
+        if(a < EXACT && a == Math.rint(a)) {
+            appendLong((long)value);
+            return this;
+        }
+
+        if(value < 0) {
+            buffer[length++] = '-';
+        }
+
+        int bits = Float.floatToRawIntBits(Math.abs(value));
+        int exponent = bits >>> 23;
+        int t = bits & ((1 << 23) - 1);
+
+        shortest(exponent != 0 ? exponent - 150 : -149, exponent != 0 ? (1 << 23) | t : t);
+
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    CellValueEncoder encode(LocalDate value) {
+
+        return encode(CellValues.getDateSerial(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    CellValueEncoder encode(LocalTime value) {
+
+        return encode(CellValues.getTimeSerial(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    CellValueEncoder encode(LocalDateTime value) {
+
+        return encode(CellValues.getDateSerial(value) + CellValues.getTimeSerial(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * UTC の日時として書き込みます。
+     */
+    CellValueEncoder encode(Instant value) {
+
+        return encode(CellValues.getSerial(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指数表記を使わずに書き込みます。桁数が多すぎる場合は double 型に丸めます。
+     */
+    CellValueEncoder encode(BigDecimal value) {
+
+        int scale = value.scale();
+        int digits = value.precision() - scale;
+
+        // toPlainString の長さ（符号・整数部・小数点・小数部）がバッファに収まらなければ double 型に丸める
+        long plain = (value.signum() < 0 ? 1 : 0) + Math.max(digits, 1) + (scale > 0 ? 1L + scale : 0);
+
+        if(plain > buffer.length) {
+            return encode(value.doubleValue());
+        }
+
+        length = 0;
+
+        // 19 桁未満の数値は、桁を long 型で取り出して文字列を作らずに書き込む
+        if(value.precision() >= 19) {
+            appendAscii(value.toPlainString());
+            return this;
+        }
+
+        long m = value.unscaledValue().longValue();
+
+        if(m < 0) {
+            buffer[length++] = '-';
+            m = -m;
+        }
+
+        int n = 1;
+        for(long x = m; x >= 10; x /= 10) {
+            n++;
+        }
+
+        if(scale <= 0) {
+            appendDigits(m, n);
+            for(int i = 0; m != 0 && i < -scale; i++) {
+                buffer[length++] = '0';
+            }
+        } else if(n > scale) {
+            appendDigits(m, n);
+            insertPoint(length - scale);
+        } else {
+            buffer[length++] = '0';
+            buffer[length++] = '.';
+            for(int i = n; i < scale; i++) {
+                buffer[length++] = '0';
+            }
+            appendDigits(m, n);
+        }
+
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void appendLong(long value) {
+
+        if(value == Long.MIN_VALUE) {
+            appendAscii(Long.toString(value));
+            return;
+        }
+
+        if(value < 0) {
+            buffer[length++] = '-';
+            value = -value;
+        }
+
+        int start = length;
+        do {
+            buffer[length++] = (byte)('0' + value % 10);
+            value /= 10;
+        } while(value != 0);
+
+        reverse(start, length - 1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * c × 2^q（double 型の値）を、元の値に戻せる最短の桁 f × 10^e に変換して書き込みます。
+     */
+    private void shortest(int q, long c) {
+
+        int out = (int)c & 1;
+        long cb = c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+
+        // 仮数が 2 の累乗のとき（最小の指数を除く）は、下側の隣の値との間隔が半分になる
+        if(c != 1L << 52 || q == -1074) {
+            cbl = cb - 2;
+            k = floorLog10Pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = floorLog10ThreeQuartersPow2(q);
+        }
+
+        int h = q + floorLog2Pow10(-k) + 2;
+        long g1 = G[2 * (k - K_MIN)];
+        long g0 = G[2 * (k - K_MIN) + 1];
+
+        long vb = roundToOdd(g1, g0, cb << h);
+        long vbl = roundToOdd(g1, g0, cbl << h);
+        long vbr = roundToOdd(g1, g0, cbr << h);
+
+        long s = vb >> 2;
+
+        // 1 桁少ない候補が範囲内にあればそれを使う
+        long sp10 = 10 * Math.multiplyHigh(s, 115_292_150_460_684_698L << 4);
+        long tp10 = sp10 + 10;
+        boolean upin = vbl + out <= sp10 << 2;
+        boolean wpin = (tp10 << 2) + out <= vbr;
+
+        if(upin != wpin) {
+            appendDecimal(upin ? sp10 : tp10, k);
+            return;
+        }
+
+        long t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+
+        if(uin != win) {
+            appendDecimal(uin ? s : t, k);
+            return;
+        }
+
+        // 両方の候補が範囲内にあれば元の値に近い方（同じなら偶数）を使う
+        long cmp = vb - (s + t << 1);
+        appendDecimal(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * c × 2^q（float 型の値）を、元の値に戻せる最短の桁 f × 10^e に変換して書き込みます。
+     */
+    private void shortest(int q, int c) {
+
+        int out = c & 1;
+        long cb = (long)c << 2;
+        long cbr = cb + 2;
+        long cbl;
+        int k;
+
+        if(c != 1 << 23 || q == -149) {
+            cbl = cb - 2;
+            k = floorLog10Pow2(q);
+        } else {
+            cbl = cb - 1;
+            k = floorLog10ThreeQuartersPow2(q);
+        }
+
+        int h = q + floorLog2Pow10(-k) + 33;
+        long g = G[2 * (k - K_MIN)] + 1;
+
+        int vb = roundToOdd(g, cb << h);
+        int vbl = roundToOdd(g, cbl << h);
+        int vbr = roundToOdd(g, cbr << h);
+
+        int s = vb >> 2;
+
+        int sp10 = 10 * (int)(s * 1_717_986_919L >>> 34);
+        int tp10 = sp10 + 10;
+        boolean upin = vbl + out <= sp10 << 2;
+        boolean wpin = (tp10 << 2) + out <= vbr;
+
+        if(upin != wpin) {
+            appendDecimal(upin ? sp10 : tp10, k);
+            return;
+        }
+
+        int t = s + 1;
+        boolean uin = vbl + out <= s << 2;
+        boolean win = (t << 2) + out <= vbr;
+
+        if(uin != win) {
+            appendDecimal(uin ? s : t, k);
+            return;
+        }
+
+        int cmp = vb - (s + t << 1);
+        appendDecimal(cmp < 0 || cmp == 0 && (s & 1) == 0 ? s : t, k);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static long roundToOdd(long g1, long g0, long cp) {
+
+        long x1 = Math.multiplyHigh(g0, cp);
+        long y0 = g1 * cp;
+        long y1 = Math.multiplyHigh(g1, cp);
+        long z = (y0 >>> 1) + x1;
+        long vbp = y1 + (z >>> 63);
+        return vbp | (z & MASK_63) + MASK_63 >>> 63;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int roundToOdd(long g, long cp) {
+
+        long x1 = Math.multiplyHigh(g, cp);
+        long vbp = x1 >>> 31;
+        return (int)(vbp | (x1 & MASK_32) + MASK_32 >>> 32);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    // floor(e × log10(2))
+    private static int floorLog10Pow2(int e) {
+
+        return (int)(e * 661_971_961_083L >> 41);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    // floor(e × log10(2) + log10(3/4))
+    private static int floorLog10ThreeQuartersPow2(int e) {
+
+        return (int)(e * 661_971_961_083L + -274_743_187_321L >> 41);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    // floor(e × log2(10))
+    private static int floorLog2Pow10(int e) {
+
+        return (int)(e * 913_124_641_741L >> 38);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * f × 10^e を書き込みます。小数点以下が PLAIN_FRACTION 桁以内なら小数点付きで、それ以外は指数表記で書きます。
+     */
+    private void appendDecimal(long f, int e) {
+
+        // 末尾の 0 は省く
+        while(f % 10 == 0) {
+            f /= 10;
+            e++;
+        }
+
+        int n = 1;
+        for(long x = f; x >= 10; x /= 10) {
+            n++;
+        }
+
+        if(e < 0 && -e <= PLAIN_FRACTION) {
+            int fraction = -e;
+            if(n <= fraction) {
+                buffer[length++] = '0';
+                buffer[length++] = '.';
+                for(int i = n; i < fraction; i++) {
+                    buffer[length++] = '0';
+                }
+                appendDigits(f, n);
+            } else {
+                appendDigits(f, n);
+                insertPoint(length - fraction);
+            }
+            return;
+        }
+
+        appendDigits(f, n);
+        if(n > 1) {
+            insertPoint(length - n + 1);
+        }
+        buffer[length++] = 'E';
+        appendLong(e + n - 1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void appendDigits(long f, int n) {
+
+        for(int i = length + n - 1; i >= length; i--) {
+            buffer[i] = (byte)('0' + f % 10);
+            f /= 10;
+        }
+        length += n;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void insertPoint(int at) {
+
+        System.arraycopy(buffer, at, buffer, at + 1, length - at);
+        buffer[at] = '.';
+        length++;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void appendAscii(String value) {
+
+        for(int i = 0; i < value.length(); i++) {
+            buffer[length++] = (byte)value.charAt(i);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void reverse(int i, int j) {
+
+        for(; i < j; i++, j--) {
+            byte b = buffer[i];
+            buffer[i] = buffer[j];
+            buffer[j] = b;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,69 @@
+package pakahi.excel;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * セルに記入する値を Excel の内部表現に変換します。
+ */
+final class CellValues {
+
+    // 1970-01-01 のシリアル値（1900-02-29 が存在するものとして数えた値）
+    private static final long EPOCH = 25569;
+
+    // 1900-02-28 までは存在しない 1900-02-29 の分だけシリアル値が小さくなる
+    private static final long RIDGE = LocalDate.of(1900, 2, 28).toEpochDay();
+
+    private static final double SECONDS_PER_DAY = 24 * 60 * 60;
+
+
+    //------------------------------------------------------------------------------------------------
+    private CellValues() {
+    }
+    //------------------------------------------------------------------------------------------------
+    static long getDateSerial(LocalDateTime date) {
+
+        return getDateSerial(date.toLocalDate());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    static long getDateSerial(LocalDate date) {
+
+        return getDateSerial(date.toEpochDay());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    static long getDateSerial(long epochDay) {
+
+        return epochDay + (epochDay > RIDGE ? EPOCH : EPOCH - 1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    static double getTimeSerial(LocalDateTime time) {
+
+        return getTimeSerial(time.toLocalTime());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    static double getTimeSerial(LocalTime time) {
+
+        return time.toSecondOfDay() / SECONDS_PER_DAY;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    static double getSerial(Instant instant) {
+
+        long seconds = instant.getEpochSecond();
+        long epochDay = Math.floorDiv(seconds, (long)SECONDS_PER_DAY);
+        return getDateSerial(epochDay) + Math.floorMod(seconds, (long)SECONDS_PER_DAY) / SECONDS_PER_DAY;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,326 @@
+package pakahi.excel;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 展開済みの SpreadsheetML 構造を一度だけ読み込み、メモリ上に保持する不変のテンプレートです。
+ * 複数のスレッドから同時に {@link Workbook} の生成元として使用できます。
+ */
+public final class CompiledTemplate {
+
+    static final String SHARED_STRINGS = "xl/sharedStrings.xml";
+    static final String WORKBOOK = "xl/workbook.xml";
+    static final String WORKBOOK_RELS = "xl/_rels/workbook.xml.rels";
+    static final String CONTENT_TYPES = "[Content_Types].xml";
+
+    private final Path path;
+    private final Map<String, byte[]> parts;
+    private final Map<String, String> sheets;
+    private final SharedStringTable sharedStrings;
+    private final Map<String, DeflatedPart> deflatedParts;
+    private final Map<String, SheetModel> sheetModels;
+
+
+    //------------------------------------------------------------------------------------------------
+    private CompiledTemplate(Path path, Map<String, byte[]> parts) {
+
+        this.path = path;
+
+        // 共有文字列がなければ空のものを追加
+        if( ! parts.containsKey(SHARED_STRINGS)) {
+            restoreSharedStrings(parts);
+        }
+
+        this.parts = Collections.unmodifiableMap(parts);
+        this.sheets = Collections.unmodifiableMap(parseSheets(parts.get(WORKBOOK)));
+        this.sharedStrings = new SharedStringTable(parseSharedStrings(parts.get(SHARED_STRINGS)), parts.get(SHARED_STRINGS));
+        this.deflatedParts = Collections.unmodifiableMap(deflate(parts));
+        this.sheetModels = Collections.unmodifiableMap(parseSheetModels(parts, sheets.values()));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 展開済みの SpreadsheetML フォルダを読み込みます。
+     * @param template テンプレートとして使用する展開済み SpreadsheetML フォルダのパス
+     * @return 読み込まれたテンプレート
+     * @throws IOException フォルダが読み込めない場合
+     */
+    public static CompiledTemplate load(Path template) throws IOException {
+
+        Map<String, byte[]> parts = new LinkedHashMap<>();
+
+        try(Stream<Path> paths = Files.walk(template)) {
+            for(Path path : paths.filter(p -> ! Files.isDirectory(p)).collect(Collectors.toList())) {
+                String name = template.relativize(path).toString().replace("\\", "/");
+                parts.put(name, Files.readAllBytes(path));
+            }
+        }
+
+        return new CompiledTemplate(template, parts);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 読み込み元のフォルダのパスを返します。
+     * @return テンプレートのパス
+     */
+    public Path getPath() {
+
+        return path;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * シート名（表示名）の一覧を返します。
+     * @return シート名のセット
+     */
+    public Set<String> getSheetNames() {
+
+        return sheets.keySet();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    Map<String, byte[]> getParts() {
+
+        return parts;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    Map<String, String> getSheets() {
+
+        return sheets;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    SharedStringTable getSharedStrings() {
+
+        return sharedStrings;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートから変更されていないパーツであれば、圧縮済みのデータを返します。
+     * @param name パーツ名
+     * @param bytes 出力するパーツの内容
+     * @return 圧縮済みのデータ。テンプレートのパーツと同一の配列でなければ null
+     */
+    DeflatedPart getDeflatedPart(String name, byte[] bytes) {
+
+        return parts.get(name) == bytes ? deflatedParts.get(name) : null;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートから変更されていないワークシートであれば、解析済みのモデルの複製を返します。
+     * @param name パーツ名
+     * @param bytes ワークシートのパーツの内容
+     * @return 解析済みのモデルの複製。テンプレートのパーツと同一の配列でない場合、または解析できなかった場合は null
+     */
+    SheetModel getSheetModel(String name, byte[] bytes) {
+
+        SheetModel model = parts.get(name) == bytes ? sheetModels.get(name) : null;
+        return model != null ? model.copy() : null;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * ワークシートを一度だけ解析し、出力のたびに複製して使います。解析できないものは各ワークシートで解析します。
+     */
+    private static Map<String, SheetModel> parseSheetModels(Map<String, byte[]> parts, Collection<String> sheetIds) {
+
+        Map<String, SheetModel> models = new HashMap<>();
+
+        for(String id : sheetIds) {
+            String name = "xl/worksheets/" + id + ".xml";
+            if(parts.containsKey(name)) {
+                try {
+                    models.put(name, SheetModel.parse(parts.get(name)));
+                } catch(IllegalArgumentException ex) {
+                    System.out.println(ex.getMessage());
+                }
+            }
+        }
+
+        return models;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 出力のたびに同じ内容になるパーツを一度だけ圧縮します。共有文字列は必ず書き換えられるので除きます。
+     */
+    private static Map<String, DeflatedPart> deflate(Map<String, byte[]> parts) {
+
+        Map<String, DeflatedPart> deflated = new HashMap<>();
+
+        for(Map.Entry<String, byte[]> e : parts.entrySet()) {
+            if( ! e.getKey().equals(SHARED_STRINGS)) {
+                deflated.put(e.getKey(), DeflatedPart.deflate(e.getValue(), Deflater.DEFAULT_COMPRESSION));
+            }
+        }
+
+        return deflated;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static HashMap<String, String> parseSheets(byte[] bytes) {
+
+        HashMap<String, String> sheets = new HashMap<>();
+
+        if(bytes == null) {
+            return sheets;
+        }
+
+        try {
+            Document xml = parse(bytes);
+            NamespaceContext context = new ExcelNamespaceContext();
+
+            List<Element> items = XPath.selectNodes(xml, "/x:workbook/x:sheets/x:sheet");
+
+            if(items != null) {
+                String uri = context.getNamespaceURI("o");
+                for(Element e : items) {
+                    String id = e.getAttributeNS(uri, "id");
+                    String name = e.getAttribute("name");
+                    sheets.put(name, id.replace("rId", "sheet"));
+                }
+            }
+
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+        }
+
+        return sheets;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static List<String> parseSharedStrings(byte[] bytes) {
+
+        List<String> strings = new ArrayList<>();
+
+        try {
+            Document xml = parse(bytes);
+
+            // <si> ごとに 1 件とし、インデックスがずれないようにする
+            List<Element> items = XPath.selectNodes(xml, "/x:sst/x:si");
+            if(items != null) {
+                for(Element si : items) {
+                    strings.add(getText(si));
+                }
+            }
+
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+        }
+
+        return strings;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 共有文字列の項目の文字列を返します。書式付きの文字列（<r>）は全ての <t> を連結し、
+     * ふりがな（<rPh>）は含めません。
+     */
+    private static String getText(Element si) {
+
+        StringBuilder text = new StringBuilder();
+
+        for(Node n = si.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if( ! (n instanceof Element)) {
+                continue;
+            }
+            if("t".equals(n.getLocalName())) {
+                text.append(n.getTextContent());
+            } else if("r".equals(n.getLocalName())) {
+                for(Node t = n.getFirstChild(); t != null; t = t.getNextSibling()) {
+                    if(t instanceof Element && "t".equals(t.getLocalName())) {
+                        text.append(t.getTextContent());
+                    }
+                }
+            }
+        }
+
+        return text.toString();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void restoreSharedStrings(Map<String, byte[]> parts) {
+
+        NamespaceContext context = new ExcelNamespaceContext();
+
+        String t = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+        t += "<sst uniqueCount=\"0\" count=\"0\" xmlns=\"" + context.getNamespaceURI("x") + "\"></sst>";
+        parts.put(SHARED_STRINGS, t.getBytes(StandardCharsets.UTF_8));
+
+        try {
+            // ワークブックのリレーションシップに追加
+            if(parts.containsKey(WORKBOOK_RELS)) {
+                Document xml = parse(parts.get(WORKBOOK_RELS));
+
+                if(XPath.selectSingleNode(xml, "/r:Relationships/r:Relationship[@Target='sharedStrings.xml']") == null) {
+                    List<Element> items = XPath.selectNodes(xml, "/r:Relationships/r:Relationship");
+
+                    int c = items == null || items.isEmpty() ? 1 : Collections.max(items.stream()
+                        .map(e -> Integer.parseInt(e.getAttribute("Id").replace("rId", "")))
+                        .collect(Collectors.toList())) + 1;
+
+                    Element e = xml.createElementNS(context.getNamespaceURI("r"), "Relationship");
+                    e.setAttribute("Id", "rId" + c);
+                    e.setAttribute("Type", "http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings");
+                    e.setAttribute("Target", "sharedStrings.xml");
+                    xml.getDocumentElement().appendChild(e);
+                    parts.put(WORKBOOK_RELS, serialize(xml));
+                }
+            }
+
+            // コンテンツタイプに追加
+            if(parts.containsKey(CONTENT_TYPES)) {
+                Document xml = parse(parts.get(CONTENT_TYPES));
+
+                if(XPath.selectSingleNode(xml, "/t:Types/t:Override[@PartName='/xl/sharedStrings.xml']") == null) {
+                    Element e = xml.createElementNS(context.getNamespaceURI("t"), "Override");
+                    e.setAttribute("PartName", "/xl/sharedStrings.xml");
+                    e.setAttribute("ContentType", "application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml");
+                    xml.getDocumentElement().appendChild(e);
+                    parts.put(CONTENT_TYPES, serialize(xml));
+                }
+            }
+
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static Document parse(byte[] bytes) throws Exception {
+
+        return XmlFactories.parse(bytes);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] serialize(Document xml) throws Exception {
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        XmlFactories.transform(xml, new StreamResult(output));
+        return output.toByteArray();
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,464 @@
+package pakahi.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 複合ファイル（MS-CFB、バージョン 3・セクタ 512 バイト）を先頭から順に書き出します。
+ * 各ストリームの大きさを先に決めておき、内容はヘッダを書き出した後に書き込み処理から受け取ります。
+ * 4096 バイト以上のストリームを先に、ミニストリーム・ディレクトリ・FAT を最後に置くため、
+ * 大きなストリームの内容をメモリに保持せずに書き出せます。
+ */
+final class CompoundFileWriter {
+
+    private static final int SECTOR = 512;
+    private static final int MINI_SECTOR = 64;
+    private static final int MINI_STREAM_CUTOFF = 4096;
+    private static final int HEADER_DIFAT = 109;
+
+    private static final int DIFSECT = 0xfffffffc;
+    private static final int FATSECT = 0xfffffffd;
+    private static final int ENDOFCHAIN = 0xfffffffe;
+    private static final int FREESECT = 0xffffffff;
+    private static final int NOSTREAM = 0xffffffff;
+
+    private static final int STORAGE = 1;
+    private static final int STREAM = 2;
+    private static final int ROOT = 5;
+
+    private final Entry root = new Entry("Root Entry", ROOT, 0, null);
+    private final List<Entry> streams = new ArrayList<>();
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ストリームの内容を書き込む処理です。宣言した大きさと同じバイト数を書き込みます。
+     */
+    @FunctionalInterface
+    interface IStreamContent {
+        void write(OutputStream output) throws IOException;
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ストレージを追加します。
+     * @param parent 親のストレージ。null の場合はルート
+     * @param name ストレージ名
+     * @return 追加したストレージ
+     */
+    Entry addStorage(Entry parent, String name) {
+
+        Entry e = new Entry(name, STORAGE, 0, null);
+        (parent != null ? parent : root).children.add(e);
+        return e;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ストリームを追加します。
+     * @param parent 親のストレージ。null の場合はルート
+     * @param name ストリーム名
+     * @param bytes ストリームの内容
+     */
+    void addStream(Entry parent, String name, byte[] bytes) {
+
+        addStream(parent, name, bytes.length, output -> output.write(bytes));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 内容を後から書き込むストリームを追加します。
+     * 内容は追加した順に書き込まれますが、4096 バイト未満のストリームは 4096 バイト以上の全てのストリームの後になります。
+     * @param parent 親のストレージ。null の場合はルート
+     * @param name ストリーム名
+     * @param size ストリームのバイト数
+     * @param content ストリームの内容を書き込む処理
+     */
+    void addStream(Entry parent, String name, long size, IStreamContent content) {
+
+        Entry e = new Entry(name, STREAM, size, content);
+        (parent != null ? parent : root).children.add(e);
+        streams.add(e);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 複合ファイルを書き出します。出力ストリームは閉じません。
+     * @param output 出力ストリーム
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void write(OutputStream output) throws IOException {
+
+        // ディレクトリの番号を振り、兄弟を木構造にする
+        List<Entry> entries = new ArrayList<>();
+        number(root, entries);
+
+        List<Entry> large = new ArrayList<>();
+        List<Entry> small = new ArrayList<>();
+        for(Entry e : streams) {
+            (e.size >= MINI_STREAM_CUTOFF ? large : small).add(e);
+        }
+
+        // セクタの配置: 大きなストリーム、ミニストリーム、ミニ FAT、ディレクトリ、FAT、DIFAT
+        long sector = 0;
+        for(Entry e : large) {
+            e.start = (int)sector;
+            sector += sectors(e.size, SECTOR);
+        }
+
+        long mini = 0;
+        for(Entry e : small) {
+            e.start = e.size > 0 ? (int)mini : ENDOFCHAIN;
+            mini += sectors(e.size, MINI_SECTOR);
+        }
+
+        long miniStreamSize = mini * MINI_SECTOR;
+        long miniStreamStart = sector;
+        sector += sectors(miniStreamSize, SECTOR);
+
+        long miniFatStart = sector;
+        long miniFatSectors = sectors(mini * 4, SECTOR);
+        sector += miniFatSectors;
+
+        long directoryStart = sector;
+        long directorySectors = sectors(entries.size() * 128L, SECTOR);
+        sector += directorySectors;
+
+        long fatSectors = 0;
+        long difatSectors = 0;
+        while(true) {
+            long f = sectors((sector + fatSectors + difatSectors) * 4, SECTOR);
+            long d = f > HEADER_DIFAT ? sectors((f - HEADER_DIFAT) * 4, SECTOR - 4) : 0;
+            if(f == fatSectors && d == difatSectors) {
+                break;
+            }
+            fatSectors = f;
+            difatSectors = d;
+        }
+
+        long fatStart = sector;
+        long difatStart = fatStart + fatSectors;
+        long total = difatStart + difatSectors;
+
+        if(total >= 0xfffffffaL) {
+            throw new IOException("The compound file is too large.");
+        }
+
+        root.start = miniStreamSize > 0 ? (int)miniStreamStart : ENDOFCHAIN;
+        root.size = miniStreamSize;
+
+        Counter counter = new Counter(output);
+
+        // ヘッダ
+        byte[] header = new byte[SECTOR];
+        int i = 0;
+        i = putLong(header, i, 0xe11ab1a1e011cfd0L);
+        i += 16;
+        i = putShort(header, i, 0x003e);
+        i = putShort(header, i, 0x0003);
+        i = putShort(header, i, 0xfffe);
+        i = putShort(header, i, 9);
+        i = putShort(header, i, 6);
+        i += 6;
+        i = putInt(header, i, 0);
+        i = putInt(header, i, (int)fatSectors);
+        i = putInt(header, i, (int)directoryStart);
+        i = putInt(header, i, 0);
+        i = putInt(header, i, MINI_STREAM_CUTOFF);
+        i = putInt(header, i, miniFatSectors > 0 ? (int)miniFatStart : ENDOFCHAIN);
+        i = putInt(header, i, (int)miniFatSectors);
+        i = putInt(header, i, difatSectors > 0 ? (int)difatStart : ENDOFCHAIN);
+        i = putInt(header, i, (int)difatSectors);
+        for(int n = 0; n < HEADER_DIFAT; n++) {
+            i = putInt(header, i, n < fatSectors ? (int)(fatStart + n) : FREESECT);
+        }
+        output.write(header);
+
+        // 大きなストリーム
+        for(Entry e : large) {
+            counter.reset();
+            e.content.write(counter);
+            check(e, counter.count);
+            pad(output, e.size, SECTOR);
+        }
+
+        // ミニストリーム
+        for(Entry e : small) {
+            counter.reset();
+            e.content.write(counter);
+            check(e, counter.count);
+            pad(output, e.size, MINI_SECTOR);
+        }
+        pad(output, miniStreamSize, SECTOR);
+
+        // ミニ FAT
+        SectorWriter table = new SectorWriter(output);
+        for(Entry e : small) {
+            chain(table, e.start, sectors(e.size, MINI_SECTOR));
+        }
+        table.finish(FREESECT);
+
+        // ディレクトリ
+        byte[] b = new byte[128];
+        for(Entry e : entries) {
+            e.write(b);
+            output.write(b);
+        }
+        for(long n = entries.size(); n < directorySectors * (SECTOR / 128); n++) {
+            Arrays.fill(b, (byte)0);
+            putInt(b, 68, NOSTREAM);
+            putInt(b, 72, NOSTREAM);
+            putInt(b, 76, NOSTREAM);
+            output.write(b);
+        }
+
+        // FAT
+        table = new SectorWriter(output);
+        for(Entry e : large) {
+            chain(table, e.start, sectors(e.size, SECTOR));
+        }
+        chain(table, (int)miniStreamStart, sectors(miniStreamSize, SECTOR));
+        chain(table, (int)miniFatStart, miniFatSectors);
+        chain(table, (int)directoryStart, directorySectors);
+        for(long n = 0; n < fatSectors; n++) {
+            table.put(FATSECT);
+        }
+        for(long n = 0; n < difatSectors; n++) {
+            table.put(DIFSECT);
+        }
+        table.finish(FREESECT);
+
+        // DIFAT（FAT セクタが 109 を超える場合）
+        table = new SectorWriter(output);
+        for(long n = HEADER_DIFAT; n < fatSectors; n++) {
+            if(table.position() == SECTOR / 4 - 1) {
+                table.put((int)(difatStart + (n - HEADER_DIFAT) / (SECTOR / 4 - 1)));
+            }
+            table.put((int)(fatStart + n));
+        }
+        if(difatSectors > 0) {
+            while(table.position() != SECTOR / 4 - 1) {
+                table.put(FREESECT);
+            }
+            table.put(ENDOFCHAIN);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * ディレクトリを深さ優先で番号付けし、兄弟を名前順に並べて中央を根とする木にします（全て黒）。
+     */
+    private static void number(Entry storage, List<Entry> entries) {
+
+        storage.id = entries.size();
+        entries.add(storage);
+
+        if(storage.children.isEmpty()) {
+            return;
+        }
+
+        storage.children.sort(Comparator.comparingInt((Entry e) -> e.name.length()).thenComparing(e -> e.name.toUpperCase()));
+
+        for(Entry e : storage.children) {
+            if(e.type == STORAGE) {
+                number(e, entries);
+            } else {
+                e.id = entries.size();
+                entries.add(e);
+            }
+        }
+
+        List<Entry> c = storage.children;
+        int middle = c.size() / 2;
+        storage.child = c.get(middle).id;
+
+        for(int n = 1; n <= middle; n++) {
+            c.get(n).left = c.get(n - 1).id;
+        }
+        for(int n = middle; n < c.size() - 1; n++) {
+            c.get(n).right = c.get(n + 1).id;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void chain(SectorWriter table, int start, long count) throws IOException {
+
+        for(long n = 1; n < count; n++) {
+            table.put((int)(start + n));
+        }
+        if(count > 0) {
+            table.put(ENDOFCHAIN);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void check(Entry e, long count) throws IOException {
+
+        if(count != e.size) {
+            throw new IOException("The stream " + e.name + " has " + count + " bytes, expected " + e.size + ".");
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void pad(OutputStream output, long size, int unit) throws IOException {
+
+        int n = (int)((unit - size % unit) % unit);
+        if(n > 0) {
+            output.write(new byte[n]);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static long sectors(long size, int unit) {
+
+        return (size + unit - 1) / unit;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int putShort(byte[] b, int i, int value) {
+
+        b[i] = (byte)value;
+        b[i + 1] = (byte)(value >> 8);
+        return i + 2;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int putInt(byte[] b, int i, int value) {
+
+        putShort(b, i, value);
+        putShort(b, i + 2, value >> 16);
+        return i + 4;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int putLong(byte[] b, int i, long value) {
+
+        putInt(b, i, (int)value);
+        putInt(b, i + 4, (int)(value >> 32));
+        return i + 8;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ディレクトリの項目（ストレージまたはストリーム）です。
+     */
+    static final class Entry {
+
+        final String name;
+        final int type;
+        final IStreamContent content;
+        final List<Entry> children = new ArrayList<>();
+        long size;
+        int id;
+        int start = ENDOFCHAIN;
+        int left = NOSTREAM;
+        int right = NOSTREAM;
+        int child = NOSTREAM;
+
+        //--------------------------------------------------------------------------------------------
+        private Entry(String name, int type, long size, IStreamContent content) {
+
+            this.name = name;
+            this.type = type;
+            this.size = size;
+            this.content = content;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private void write(byte[] b) {
+
+            Arrays.fill(b, (byte)0);
+
+            byte[] n = name.getBytes(StandardCharsets.UTF_16LE);
+            System.arraycopy(n, 0, b, 0, Math.min(n.length, 62));
+            putShort(b, 64, Math.min(n.length, 62) + 2);
+            b[66] = (byte)type;
+            b[67] = 1;
+            putInt(b, 68, left);
+            putInt(b, 72, right);
+            putInt(b, 76, child);
+            putInt(b, 116, type == STORAGE ? 0 : start);
+            putLong(b, 120, type == STORAGE ? 0 : size);
+
+        }
+        //--------------------------------------------------------------------------------------------
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * セクタの番号（4 バイト）を書き込み、最後のセクタを指定した値で埋めます。
+     */
+    private static final class SectorWriter {
+
+        private final OutputStream output;
+        private final byte[] buffer = new byte[SECTOR];
+        private int length;
+
+        SectorWriter(OutputStream output) {
+            this.output = output;
+        }
+
+        int position() {
+            return length / 4;
+        }
+
+        void put(int value) throws IOException {
+            putInt(buffer, length, value);
+            length += 4;
+            if(length == SECTOR) {
+                output.write(buffer);
+                length = 0;
+            }
+        }
+
+        void finish(int fill) throws IOException {
+            if(length == 0) {
+                return;
+            }
+            while(length < SECTOR) {
+                length = putInt(buffer, length, fill);
+            }
+            output.write(buffer);
+            length = 0;
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 書き込まれたバイト数を数えます。
+     */
+    private static final class Counter extends OutputStream {
+
+        private final OutputStream output;
+        long count;
+
+        Counter(OutputStream output) {
+            this.output = output;
+        }
+
+        void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            output.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            output.write(b, off, len);
+            count += len;
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,166 @@
+package pakahi.excel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ZIP のエントリとしてそのまま書き出せる、圧縮済みのパーツです。
+ */
+final class DeflatedPart {
+
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    // 分割して圧縮するときに、前の区間から辞書として引き継ぐバイト数
+    static final int DICTIONARY = 32 * 1024;
+
+    // ZIP64 を使わずに書き出せるパーツの大きさの上限
+    static final long MAX_SIZE = 0xffffffffL;
+
+    final int method;
+    final byte[] data;
+    final int crc;
+    final int size;
+
+
+    //------------------------------------------------------------------------------------------------
+    DeflatedPart(int method, byte[] data, int crc, int size) {
+
+        this.method = method;
+        this.data = data;
+        this.crc = crc;
+        this.size = size;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツを圧縮せずに格納します（STORED）。
+     * @param bytes パーツの内容
+     * @return 格納されたパーツ
+     */
+    static DeflatedPart store(byte[] bytes) {
+
+        return new DeflatedPart(STORED, bytes, crc(bytes, 0, bytes.length), bytes.length);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツを圧縮します。
+     * @param bytes パーツの内容
+     * @param level 圧縮レベル（-1 ～ 9）
+     * @return 圧縮済みのパーツ
+     */
+    static DeflatedPart deflate(byte[] bytes, int level) {
+
+        return new DeflatedPart(DEFLATED, deflate(bytes, 0, bytes.length, true, level), crc(bytes, 0, bytes.length), bytes.length);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 入力ストリームから少しずつ読み込みながらパーツを圧縮します。パーツの内容全体はメモリに保持しません。
+     * 結果は {@link #deflate(byte[], int)} と同じです。入力ストリームは閉じません。
+     * @param input パーツの内容
+     * @param level 圧縮レベル（-1 ～ 9）
+     * @return 圧縮済みのパーツ
+     * @throws IOException 読み込みに失敗した場合、またはパーツが大きすぎる場合
+     */
+    static DeflatedPart deflate(InputStream input, int level) throws IOException {
+
+        Deflater deflater = DeflaterPool.borrow(level);
+
+        try {
+            CRC32 crc = new CRC32();
+            byte[] in = new byte[64 * 1024];
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream output = new ByteArrayOutputStream(8192);
+            long size = 0;
+            int n;
+
+            while((n = input.readNBytes(in, 0, in.length)) > 0) {
+                crc.update(in, 0, n);
+                size += n;
+                if(size > MAX_SIZE) {
+                    throw new IOException("The part is too large to be written without ZIP64.");
+                }
+                deflater.setInput(in, 0, n);
+                while( ! deflater.needsInput()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+            }
+
+            deflater.finish();
+            while( ! deflater.finished()) {
+                output.write(buffer, 0, deflater.deflate(buffer));
+            }
+
+            return new DeflatedPart(DEFLATED, output.toByteArray(), (int)crc.getValue(), (int)size);
+
+        } finally {
+            DeflaterPool.release(deflater, level);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツの一区間を圧縮します。最後の区間以外はバイト境界で終わるように SYNC_FLUSH し、
+     * 2 番目以降の区間は直前の 32KB を辞書とするため、各区間の結果を連結すると一つの DEFLATE データになります。
+     * @param bytes パーツの内容
+     * @param offset 区間の開始位置
+     * @param length 区間の長さ
+     * @param last 最後の区間であれば true
+     * @param level 圧縮レベル（-1 ～ 9）
+     * @return 区間の圧縮データ
+     */
+    static byte[] deflate(byte[] bytes, int offset, int length, boolean last, int level) {
+
+        Deflater deflater = DeflaterPool.borrow(level);
+
+        try {
+            if(offset > 0) {
+                int n = Math.min(offset, DICTIONARY);
+                deflater.setDictionary(bytes, offset - n, n);
+            }
+
+            deflater.setInput(bytes, offset, length);
+
+            byte[] buffer = new byte[8192];
+            ByteArrayOutputStream output = new ByteArrayOutputStream(Math.max(64, length / 4));
+
+            if(last) {
+                deflater.finish();
+                while( ! deflater.finished()) {
+                    output.write(buffer, 0, deflater.deflate(buffer));
+                }
+            } else {
+                int n;
+                do {
+                    n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                    output.write(buffer, 0, n);
+                } while(n == buffer.length);
+            }
+
+            return output.toByteArray();
+
+        } finally {
+            DeflaterPool.release(deflater, level);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    static int crc(byte[] bytes, int offset, int length) {
+
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int)crc.getValue();
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,72 @@
+package pakahi.excel;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 圧縮レベルごとに Deflater（nowrap）を使い回します。Deflater はネイティブのメモリを持つため、生成と破棄を減らします。
+ */
+final class DeflaterPool {
+
+    private static final int POOL_SIZE = 32;
+
+    // 圧縮レベル -1 ～ 9 ごとのプール
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static final Queue<Deflater>[] POOLS = new Queue[11];
+    private static final AtomicInteger[] POOLED = new AtomicInteger[11];
+
+    static {
+        for(int i = 0; i < POOLS.length; i++) {
+            POOLS[i] = new ConcurrentLinkedQueue<>();
+            POOLED[i] = new AtomicInteger();
+        }
+    }
+
+
+    //------------------------------------------------------------------------------------------------
+    private DeflaterPool() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 初期状態の Deflater を借ります。
+     * @param level 圧縮レベル（-1 ～ 9）
+     * @return Deflater
+     */
+    static Deflater borrow(int level) {
+
+        Deflater deflater = POOLS[level + 1].poll();
+
+        if(deflater == null) {
+            return new Deflater(level, true);
+        }
+
+        POOLED[level + 1].decrementAndGet();
+        deflater.reset();
+        return deflater;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 借りた Deflater を返します。プールが一杯であれば破棄します。
+     * @param deflater Deflater
+     * @param level 借りたときの圧縮レベル
+     */
+    static void release(Deflater deflater, int level) {
+
+        if(POOLED[level + 1].incrementAndGet() <= POOL_SIZE) {
+            POOLS[level + 1].offer(deflater);
+        } else {
+            POOLED[level + 1].decrementAndGet();
+            deflater.end();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
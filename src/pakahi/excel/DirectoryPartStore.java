@@ -0,0 +1,188 @@
+package pakahi.excel;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * テンプレートのパーツを参照し、変更されたパーツだけをフォルダのファイルに書き出す {@link IPartStore} です。
+ * フォルダは閉じたときに削除されます。
+ */
+final class DirectoryPartStore implements IPartStore {
+
+    private final Map<String, byte[]> base;
+    private final Path folder;
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+    private final Set<String> added = Collections.synchronizedSet(new LinkedHashSet<>());
+
+
+    //------------------------------------------------------------------------------------------------
+    DirectoryPartStore(CompiledTemplate template, Path folder) {
+
+        this.base = template.getParts();
+        this.folder = folder;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public byte[] get(String name) {
+
+        if( ! written.contains(name)) {
+            return base.get(name);
+        }
+
+        try {
+            return Files.readAllBytes(folder.resolve(name));
+        } catch(IOException ex) {
+            throw new WorkbookException("Cannot read " + name, ex);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ファイルに書き出したパーツは false を返します。
+     */
+    @Override
+    public boolean isInMemory(String name) {
+
+        return ! written.contains(name);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ファイルに書き出したパーツは、ファイルを直接読み込みます。
+     */
+    @Override
+    public InputStream openInput(String name) throws IOException {
+
+        if(written.contains(name)) {
+            return Files.newInputStream(folder.resolve(name));
+        }
+
+        byte[] bytes = base.get(name);
+
+        if(bytes == null) {
+            throw new IOException("The part is not found: " + name);
+        }
+
+        return new ByteArrayInputStream(bytes);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public boolean contains(String name) {
+
+        return base.containsKey(name) || written.contains(name);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void put(String name, byte[] bytes) {
+
+        try {
+            Path path = folder.resolve(name);
+            Files.createDirectories(path.getParent());
+            Files.write(path, bytes);
+        } catch(IOException ex) {
+            throw new WorkbookException("Cannot write " + name, ex);
+        }
+
+        if( ! base.containsKey(name)) {
+            added.add(name);
+        }
+        written.add(name);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 一時ファイルに直接書き込む出力ストリームを開きます。内容はメモリ上に保持しません。
+     * commit したときに一時ファイルをパーツのファイルに置き換え、commit せずに閉じたときは一時ファイルを削除します。
+     * commit するまでは、このパーツは以前の内容を返します。
+     */
+    @Override
+    public PartOutputStream openOutput(String name) throws IOException {
+
+        Path path = folder.resolve(name);
+        Files.createDirectories(path.getParent());
+        Path temporary = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+        OutputStream output = Files.newOutputStream(temporary);
+
+        return new PartOutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                output.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                output.write(b, off, len);
+            }
+
+            @Override
+            protected void publish() throws IOException {
+                try {
+                    output.close();
+                    Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING);
+                } catch(IOException ex) {
+                    Files.deleteIfExists(temporary);
+                    throw ex;
+                }
+
+                if( ! base.containsKey(name)) {
+                    added.add(name);
+                }
+                written.add(name);
+            }
+
+            @Override
+            protected void discard() throws IOException {
+                try {
+                    output.close();
+                } finally {
+                    Files.deleteIfExists(temporary);
+                }
+            }
+        };
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public Set<String> getNames() {
+
+        Set<String> names = new LinkedHashSet<>(base.keySet());
+        synchronized(added) {
+            names.addAll(added);
+        }
+        return names;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void close() {
+
+        written.clear();
+        added.clear();
+
+        try(Stream<Path> paths = Files.walk(folder)) {
+            for(Path path : (Iterable<Path>)paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(path);
+            }
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
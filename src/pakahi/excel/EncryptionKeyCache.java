@@ -0,0 +1,169 @@
+package pakahi.excel;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * パスワードから導出した暗号化の鍵（salt と繰り返し後のハッシュ）を、パスワードごとに保持するキャッシュです。
+ * 同じパスワードで多数のファイルを暗号化するときに、ファイルごとのハッシュの繰り返しを省きます。
+ * データを暗号化する鍵・salt・IV はファイルごとに新しく生成されます。
+ * パスワードそのものは保持せず、キャッシュごとの乱数を鍵とする HMAC で識別します。
+ * 上限を超えた項目や削除した項目の鍵は 0 で上書きされます。スレッドセーフです。
+ */
+public final class EncryptionKeyCache {
+
+    private final byte[] secret = new byte[32];
+    private final LinkedHashMap<Key, AgileEncryption.PasswordKey> entries;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 暗号化の鍵のキャッシュのコンストラクタです。
+     * @param capacity 保持するパスワードの数の上限（1 以上）。超えた場合は最も長く使われていないものを削除します
+     */
+    public EncryptionKeyCache(int capacity) {
+
+        if(capacity < 1) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+
+        new SecureRandom().nextBytes(secret);
+
+        entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, AgileEncryption.PasswordKey> eldest) {
+                if(size() > capacity) {
+                    eldest.getValue().clear();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードの鍵を削除します。全ての繰り返し回数のものが削除されます。
+     * @param password パスワード
+     */
+    public void evict(String password) {
+
+        byte[] id = id(password);
+
+        synchronized(entries) {
+            for(Iterator<Map.Entry<Key, AgileEncryption.PasswordKey>> i = entries.entrySet().iterator(); i.hasNext(); ) {
+                Map.Entry<Key, AgileEncryption.PasswordKey> e = i.next();
+                if(Arrays.equals(e.getKey().id, id)) {
+                    e.getValue().clear();
+                    i.remove();
+                }
+            }
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 全ての鍵を削除します。
+     */
+    public void clear() {
+
+        synchronized(entries) {
+            for(AgileEncryption.PasswordKey key : entries.values()) {
+                key.clear();
+            }
+            entries.clear();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 保持している鍵の数を返します。
+     * @return 鍵の数
+     */
+    public int size() {
+
+        synchronized(entries) {
+            return entries.size();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードの鍵の複製を返します。なければ導出して追加します。複製は使用後に 0 で上書きしてください。
+     * @param password パスワード
+     * @param spinCount ハッシュの繰り返し回数
+     * @return 鍵の複製
+     * @throws GeneralSecurityException 鍵を導出できない場合
+     */
+    AgileEncryption.PasswordKey get(String password, int spinCount) throws GeneralSecurityException {
+
+        Key key = new Key(id(password), spinCount);
+
+        synchronized(entries) {
+            AgileEncryption.PasswordKey cached = entries.get(key);
+            if(cached != null) {
+                return cached.copy();
+            }
+        }
+
+        // 導出はロックの外で行う
+        AgileEncryption.PasswordKey derived = AgileEncryption.PasswordKey.derive(password, spinCount);
+
+        synchronized(entries) {
+            AgileEncryption.PasswordKey cached = entries.putIfAbsent(key, derived);
+            if(cached != null) {
+                derived.clear();
+                return cached.copy();
+            }
+            return derived.copy();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private byte[] id(String password) {
+
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_16LE));
+
+        } catch(GeneralSecurityException ex) {
+            throw new WorkbookException(ex);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static final class Key {
+
+        final byte[] id;
+        final int spinCount;
+
+        Key(byte[] id, int spinCount) {
+            this.id = id;
+            this.spinCount = spinCount;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key)o).spinCount == spinCount && Arrays.equals(((Key)o).id, id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(id) * 31 + spinCount;
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
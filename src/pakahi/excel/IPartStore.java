@@ -0,0 +1,220 @@
+package pakahi.excel;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ワークブックの生成中に、SpreadsheetML 構造の各パーツを保持する場所です。
+ * テンプレートのパーツを元に、変更されたパーツだけを書き換えます。
+ * 変更されていないパーツは、テンプレートが保持する配列をそのまま返してください（圧縮済みのデータが再利用されます）。
+ * 異なるパーツへの読み書きが複数のスレッドから同時に行われることがあります。
+ */
+public interface IPartStore extends AutoCloseable {
+
+    /**
+     * パーツの内容を返します。
+     * @param name パーツ名（先頭の / を除いたもの。例: xl/worksheets/sheet1.xml）
+     * @return パーツの内容。なければ null
+     */
+    byte[] get(String name);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツがあるかどうかを返します。
+     * @param name パーツ名
+     * @return あれば true
+     */
+    boolean contains(String name);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツの内容を置き換えます。なければ追加します。
+     * @param name パーツ名
+     * @param bytes パーツの内容
+     */
+    void put(String name, byte[] bytes);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツの内容を書き込む出力ストリームを開きます。大きなパーツを、全体をバイト配列にまとめずに書き込むときに使います。
+     * 書き込んだ内容は {@link PartOutputStream#commit()} を呼び出したときにだけパーツを置き換えます。
+     * commit せずに閉じた場合は書き込んだ内容を破棄し、パーツは元の内容のまま残ります。
+     * 既定の実装は内容をメモリ上に集め、commit のときに {@link #put(String, byte[])} を呼び出します。
+     * @param name パーツ名
+     * @return 出力ストリーム
+     * @throws IOException 開けなかった場合
+     */
+    default PartOutputStream openOutput(String name) throws IOException {
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        return new PartOutputStream() {
+            @Override
+            public void write(int b) {
+                buffer.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                buffer.write(b, off, len);
+            }
+
+            @Override
+            protected void publish() {
+                put(name, buffer.toByteArray());
+            }
+
+            @Override
+            protected void discard() {
+                buffer.reset();
+            }
+        };
+
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツの内容がメモリ上の配列として保持されているかどうかを返します。
+     * false を返すパーツは、パッケージに書き出すときに {@link #openInput(String)} で少しずつ読み込んで圧縮します。
+     * 既定の実装は true を返します。
+     * @param name パーツ名
+     * @return メモリ上に保持されていれば true
+     */
+    default boolean isInMemory(String name) {
+
+        return true;
+
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツの内容を読み込む入力ストリームを開きます。大きなパーツを、全体をバイト配列にまとめずに読み込むときに使います。
+     * 既定の実装は {@link #get(String)} が返す配列を読み込みます。
+     * @param name パーツ名
+     * @return 入力ストリーム
+     * @throws IOException パーツがない場合、または開けなかった場合
+     */
+    default InputStream openInput(String name) throws IOException {
+
+        byte[] bytes = get(name);
+
+        if(bytes == null) {
+            throw new IOException("The part is not found: " + name);
+        }
+
+        return new ByteArrayInputStream(bytes);
+
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 全てのパーツ名を、テンプレートの順番に続けて追加された順番で返します。
+     * @return パーツ名のセット
+     */
+    Set<String> getNames();
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 変更されたパーツを破棄します。
+     */
+    @Override
+    void close();
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link IPartStore#openOutput(String)} で開く、パーツの内容を書き込む出力ストリームです。
+     * 全て書き込めたら {@link #commit()} でパーツを置き換えます。commit せずに閉じると、書き込んだ内容は破棄されます。
+     * 途中で失敗した書き込みで、パーツが壊れた内容に置き換わることはありません。
+     */
+    abstract class PartOutputStream extends OutputStream {
+
+        private boolean done;
+
+        /**
+         * 書き込んだ内容でパーツを置き換え、ストリームを閉じます。
+         * @throws IOException 置き換えに失敗した場合
+         */
+        public final void commit() throws IOException {
+
+            if(done) {
+                throw new IOException("The part output is already closed.");
+            }
+
+            done = true;
+            publish();
+
+        }
+
+        /**
+         * commit されていなければ、書き込んだ内容を破棄してストリームを閉じます。commit 後は何もしません。
+         * @throws IOException 破棄に失敗した場合
+         */
+        @Override
+        public final void close() throws IOException {
+
+            if( ! done) {
+                done = true;
+                discard();
+            }
+
+        }
+
+        /**
+         * 書き込んだ内容でパーツを置き換えます。{@link #commit()} から一度だけ呼び出されます。
+         * @throws IOException 置き換えに失敗した場合
+         */
+        protected abstract void publish() throws IOException;
+
+        /**
+         * 書き込んだ内容を破棄します。commit されずに閉じられたときに一度だけ呼び出されます。
+         * @throws IOException 破棄に失敗した場合
+         */
+        protected abstract void discard() throws IOException;
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークブックごとに {@link IPartStore} を開くインタフェースです。
+     */
+    @FunctionalInterface
+    interface IPartStoreFactory {
+        IPartStore open(CompiledTemplate template) throws IOException;
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 変更されたパーツだけをメモリ上に保持する {@link IPartStore} を開く処理を返します。既定の保持場所です。
+     * @return パーツの保持場所を開く処理
+     */
+    static IPartStoreFactory inMemory() {
+
+        return MemoryPartStore::new;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 変更されたパーツを一時フォルダのファイルに書き出す {@link IPartStore} を開く処理を返します。
+     * 大きなシートを記入したパーツをメモリに保持せず、パッケージに書き出すときもファイルから少しずつ読み込んで圧縮します
+     * （メモリに残るのは圧縮後のデータだけです。圧縮レベル 0 で格納する場合は、パーツ全体を読み込みます）。
+     * 一時フォルダは閉じたときに削除されます。
+     * @param folder 一時フォルダを作成するフォルダ
+     * @return パーツの保持場所を開く処理
+     */
+    static IPartStoreFactory inDirectory(Path folder) {
+
+        return template -> new DirectoryPartStore(template, Files.createTempDirectory(folder, "pakahi"));
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,20 @@
+package pakahi.excel;
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * {@link Workbook#renderAll} で 1 件の記入または書き出しに失敗したときに通知を受けるインタフェースです。
+ * 複数のスレッドから同時に呼び出されることがあります。
+ */
+@FunctionalInterface
+public interface IRenderErrorHandler {
+
+    /**
+     * 失敗を通知します。
+     * @param index データオブジェクトの順番（0 から）
+     * @param report 失敗したデータオブジェクト
+     * @param exception 発生した例外
+     */
+    void failed(long index, IReport report, Exception exception);
+
+}
+//----------------------------------------------------------------------------------------------------
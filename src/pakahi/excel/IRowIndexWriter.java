@@ -0,0 +1,21 @@
+package pakahi.excel;
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 表領域の 1 行分のセルを、配列などの要素の番号を指定して記入する処理のインタフェースです。
+ * 列ごとの配列をデータオブジェクトに包まずに記入するときに使います。
+ */
+@FunctionalInterface
+public interface IRowIndexWriter {
+
+    /**
+     * 1 行分のセルを記入します。
+     * @param worksheet 記入先のワークシート
+     * @param row 記入する行番号
+     * @param index 記入する要素の番号（表領域の先頭の行が 0）
+     * @throws Exception 値の取得に失敗した場合
+     */
+    void write(IWorksheet worksheet, int row, int index) throws Exception;
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,20 @@
+package pakahi.excel;
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 表領域の要素を 1 件ずつ返すインタフェースです。{@link Range} の付いたフィールドの型として使用できます。
+ * 要素はワークシートを書き出すときに順に呼び出され、記入した要素は保持されません。
+ * @param <T> 表領域の要素の型
+ */
+@FunctionalInterface
+public interface IRowSupplier<T extends IReport> {
+
+    /**
+     * 次の要素を返します。
+     * @return 次の要素。要素がなければ null
+     * @throws Exception 要素の取得に失敗した場合
+     */
+    T next() throws Exception;
+
+}
+//----------------------------------------------------------------------------------------------------
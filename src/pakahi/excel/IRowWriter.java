@@ -0,0 +1,19 @@
+package pakahi.excel;
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 表領域の 1 行分のセルを記入する処理のインタフェースです。
+ */
+public interface IRowWriter {
+
+    /**
+     * 1 行分のセルを記入します。
+     * @param worksheet 記入先のワークシート
+     * @param row 記入する行番号
+     * @param item 記入するデータオブジェクト
+     * @throws Exception 値の取得に失敗した場合
+     */
+    void write(IWorksheet worksheet, int row, IReport item) throws Exception;
+
+}
+//----------------------------------------------------------------------------------------------------
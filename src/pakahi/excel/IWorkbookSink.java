@@ -0,0 +1,66 @@
+package pakahi.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * {@link Workbook#renderAll} で生成したワークブックの出力先です。
+ * 複数のスレッドから同時に呼び出されることがあります。ワークブックは呼び出しの後に閉じられます。
+ */
+@FunctionalInterface
+public interface IWorkbookSink {
+
+    /**
+     * 生成したワークブックを書き出します。
+     * @param index データオブジェクトの順番（0 から）
+     * @param report 記入したデータオブジェクト
+     * @param workbook 生成したワークブック
+     * @throws Exception 書き出しに失敗した場合
+     */
+    void accept(long index, IReport report, Workbook workbook) throws Exception;
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 1 件ごとに出力ストリームを開くインタフェースです。
+     */
+    @FunctionalInterface
+    interface IOutputStreamFactory {
+        OutputStream open(long index, IReport report) throws IOException;
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 1 件ごとに開いた出力ストリームに書き出す出力先を返します。ストリームは書き出しの後に閉じられます。
+     * @param factory 出力ストリームを開く処理
+     * @return 出力先
+     */
+    static IWorkbookSink toStreams(IOutputStreamFactory factory) {
+
+        return (index, report, workbook) -> {
+            try(OutputStream output = factory.open(index, report)) {
+                workbook.writeTo(output);
+            }
+        };
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 1 件ごとにファイルとして保存する出力先を返します。
+     * @param folder 保存先のフォルダ
+     * @param prefix ファイル名の接頭辞。ファイル名は prefix + 連番 + ".xlsx" になります
+     * @return 出力先
+     */
+    static IWorkbookSink toFiles(Path folder, String prefix) {
+
+        return toStreams((index, report) -> Files.newOutputStream(folder.resolve(prefix + index + ".xlsx")));
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,141 @@
+package pakahi.excel;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ワークシートに値を記入するためのインタフェースです。
+ */
+public interface IWorksheet {
+
+    //------------------------------------------------------------------------------------------------
+    // 行番号・列番号で指定したセルに値を記入します。
+    void setCellValue(int row, int column, String value);
+    void setCellValue(int row, int column, Boolean value);
+    void setCellValue(int row, int column, LocalDateTime value);
+    void setCellValue(int row, int column, LocalDate value);
+    void setCellValue(int row, int column, LocalTime value);
+    void setCellValue(int row, int column, int value);
+    void setCellValue(int row, int column, long value);
+    void setCellValue(int row, int column, byte value);
+    void setCellValue(int row, int column, short value);
+    void setCellValue(int row, int column, double value);
+    void setCellValue(int row, int column, float value);
+    void setCellValue(int row, int column, BigDecimal value);
+    void setCellValue(int row, int column, Instant value);
+
+    //------------------------------------------------------------------------------------------------
+    // A1 形式のアドレスで指定したセルに値を記入します。
+    default void setCellValue(String address, String value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, Boolean value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, LocalDateTime value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, LocalDate value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, LocalTime value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, int value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, long value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, byte value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, short value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, double value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, float value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, BigDecimal value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+    default void setCellValue(String address, Instant value) {
+        long a = Address.reference(address);
+        setCellValue(CellReference.row(a), CellReference.column(a), value);
+    }
+
+    //------------------------------------------------------------------------------------------------
+    // 共有文字列を使わずに、セルに直接文字列を記入します（t="inlineStr"）。
+    void setInlineString(int row, int column, String value);
+    default void setInlineString(String address, String value) {
+        long a = Address.reference(address);
+        setInlineString(CellReference.row(a), CellReference.column(a), value);
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各行に要素の値を記入します。
+     * 行の挿入と記入は {@link #save()} のときに全ての表領域についてまとめて行われます。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param items 各行に記入するデータオブジェクトのリスト
+     * @param writer 1 行分のセルを記入する処理
+     */
+    void insertRows(String address, List<? extends IReport> items, IRowWriter writer);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各行に要素の値を記入します。要素の数は事前に分からなくても構いません。
+     * 要素は書き出すときに先頭から 1 件ずつ読み出され、記入した要素は保持されません。
+     * 既定の実装は全ての要素を読み出してリストとして登録します。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param items 各行に記入するデータオブジェクト
+     * @param writer 1 行分のセルを記入する処理
+     */
+    default void insertRows(String address, Iterator<? extends IReport> items, IRowWriter writer) {
+        List<IReport> list = new ArrayList<>();
+        items.forEachRemaining(list::add);
+        insertRows(address, list, writer);
+    }
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に指定した数の行を挿入し、各行に要素の番号を指定して値を記入します。
+     * 列ごとの配列を、データオブジェクトに包まずに記入するときに使います。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param count 挿入する行数（要素の数）
+     * @param writer 1 行分のセルを記入する処理
+     */
+    void insertRows(String address, int count, IRowIndexWriter writer);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートをパーツとして保存します。
+     */
+    void save();
+
+}
+//----------------------------------------------------------------------------------------------------
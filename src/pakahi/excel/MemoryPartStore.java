@@ -0,0 +1,149 @@
+package pakahi.excel;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * テンプレートのパーツを参照し、変更されたパーツだけをメモリ上に保持する {@link IPartStore} です。
+ */
+final class MemoryPartStore implements IPartStore {
+
+    // 出力ストリームで書き込まれた内容を集める区間の大きさ
+    private static final int CHUNK = 64 * 1024;
+
+    private final Map<String, byte[]> base;
+    private final Map<String, byte[]> modified = new ConcurrentHashMap<>();
+    private final Set<String> added = Collections.synchronizedSet(new LinkedHashSet<>());
+
+
+    //------------------------------------------------------------------------------------------------
+    MemoryPartStore(CompiledTemplate template) {
+
+        this.base = template.getParts();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public byte[] get(String name) {
+
+        byte[] bytes = modified.get(name);
+        return bytes != null ? bytes : base.get(name);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public boolean contains(String name) {
+
+        return base.containsKey(name) || modified.containsKey(name);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void put(String name, byte[] bytes) {
+
+        if( ! base.containsKey(name)) {
+            added.add(name);
+        }
+        modified.put(name, bytes);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込まれた内容を一定の大きさの区間に分けて集め、commit したときに 1 つの配列にまとめて格納します。
+     * commit せずに閉じたときは、集めた区間を破棄します。
+     * 書き込み中にバッファを広げ直すことはありませんが、まとめる間だけは区間と配列が一時的に並存します。
+     * パーツ全体をメモリに置かずに書き出すには {@link IPartStore#inDirectory(java.nio.file.Path)} を使ってください。
+     */
+    @Override
+    public PartOutputStream openOutput(String name) {
+
+        return new PartOutputStream() {
+            private final List<byte[]> chunks = new ArrayList<>();
+            private byte[] chunk = new byte[CHUNK];
+            private int length;
+            private long total;
+
+            @Override
+            public void write(int b) {
+                if(length == chunk.length) {
+                    next();
+                }
+                chunk[length++] = (byte)b;
+                total++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                total += len;
+                while(len > 0) {
+                    if(length == chunk.length) {
+                        next();
+                    }
+                    int n = Math.min(len, chunk.length - length);
+                    System.arraycopy(b, off, chunk, length, n);
+                    length += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            private void next() {
+                chunks.add(chunk);
+                chunk = new byte[CHUNK];
+                length = 0;
+            }
+
+            @Override
+            protected void publish() throws IOException {
+                if(total > Integer.MAX_VALUE - 8) {
+                    throw new IOException("The part is too large: " + name);
+                }
+
+                byte[] bytes = new byte[(int)total];
+                int p = 0;
+                for(int i = 0; i < chunks.size(); i++) {
+                    System.arraycopy(chunks.get(i), 0, bytes, p, CHUNK);
+                    chunks.set(i, null);
+                    p += CHUNK;
+                }
+                System.arraycopy(chunk, 0, bytes, p, length);
+                chunk = null;
+
+                put(name, bytes);
+            }
+
+            @Override
+            protected void discard() {
+                chunks.clear();
+                chunk = null;
+            }
+        };
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public Set<String> getNames() {
+
+        Set<String> names = new LinkedHashSet<>(base.keySet());
+        synchronized(added) {
+            names.addAll(added);
+        }
+        return names;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void close() {
+
+        modified.clear();
+        added.clear();
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
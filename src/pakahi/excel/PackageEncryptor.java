@@ -0,0 +1,172 @@
+package pakahi.excel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * パスワードにより暗号化したパッケージを、複合ファイル（CFB）として書き出します。
+ * 暗号化は {@link AgileEncryption}、複合ファイルの作成は {@link CompoundFileWriter} が行い、POI は使用しません。
+ * 暗号化したパッケージはメモリに保持せず、セグメントごとに暗号化しながら出力ストリームに書き込みます。
+ */
+final class PackageEncryptor {
+
+    private static final String DATA_SPACES = "\u0006DataSpaces";
+    private static final String ENCRYPTED_PACKAGE = "EncryptedPackage";
+    private static final String ENCRYPTION_INFO = "EncryptionInfo";
+    private static final String DATA_SPACE = "StrongEncryptionDataSpace";
+    private static final String TRANSFORM = "StrongEncryptionTransform";
+    private static final String TRANSFORM_ID = "{FF9A3F03-56EF-4613-BDD5-5A41C1D07246}";
+    private static final String TRANSFORM_NAME = "Microsoft.Container.EncryptionTransform";
+    private static final String FEATURE = "Microsoft.Container.DataSpaces";
+
+    //------------------------------------------------------------------------------------------------
+    private PackageEncryptor() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パッケージを暗号化し、複合ファイルとして出力ストリームに書き出します。出力ストリームは閉じません。
+     * @param buffer パッケージを書き出したバッファ
+     * @param password パスワード
+     * @param options 繰り返し回数・鍵のキャッシュ・並列に暗号化するための Executor を持つ設定
+     * @param output 出力ストリーム
+     * @throws IOException 書き込みに失敗した場合
+     */
+    static void encrypt(Buffer buffer, String password, WorkbookOptions options, OutputStream output) throws IOException {
+
+        AgileEncryption encryption;
+        try {
+            encryption = new AgileEncryption(password, options.getSpinCount(), options.getKeyCache());
+        } catch(GeneralSecurityException ex) {
+            throw new WorkbookException(ex);
+        }
+
+        try {
+            CompoundFileWriter writer = new CompoundFileWriter();
+
+            // データスペース（MS-OFFCRYPTO 2.1）
+            CompoundFileWriter.Entry dataSpaces = writer.addStorage(null, DATA_SPACES);
+            writer.addStream(dataSpaces, "Version", version());
+            writer.addStream(dataSpaces, "DataSpaceMap", dataSpaceMap());
+            writer.addStream(writer.addStorage(dataSpaces, "DataSpaceInfo"), DATA_SPACE, dataSpaceDefinition());
+            writer.addStream(writer.addStorage(writer.addStorage(dataSpaces, "TransformInfo"), TRANSFORM), "\u0006Primary", transform());
+
+            // EncryptionInfo は EncryptedPackage の HMAC を含むため、EncryptedPackage の後に書き込む
+            writer.addStream(null, ENCRYPTED_PACKAGE, AgileEncryption.getPackageSize(buffer.size()),
+                o -> encryption.writePackage(buffer.array(), buffer.size(), o, options.getExecutor()));
+            writer.addStream(null, ENCRYPTION_INFO, encryption.getInfoSize(), o -> o.write(encryption.getInfo()));
+
+            writer.write(output);
+
+        } finally {
+            encryption.clear();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] version() {
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        unicode(b, FEATURE);
+        putInt(b, 1);
+        putInt(b, 1);
+        putInt(b, 1);
+        return b.toByteArray();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] dataSpaceMap() {
+
+        ByteArrayOutputStream entry = new ByteArrayOutputStream();
+        putInt(entry, 1);
+        putInt(entry, 0);
+        unicode(entry, ENCRYPTED_PACKAGE);
+        unicode(entry, DATA_SPACE);
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        putInt(b, 8);
+        putInt(b, 1);
+        putInt(b, entry.size() + 4);
+        b.writeBytes(entry.toByteArray());
+        return b.toByteArray();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] dataSpaceDefinition() {
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        putInt(b, 8);
+        putInt(b, 1);
+        unicode(b, TRANSFORM);
+        return b.toByteArray();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] transform() {
+
+        // TransformInfoHeader の長さは、種類と ID までのバイト数
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        putInt(header, 1);
+        unicode(header, TRANSFORM_ID);
+
+        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        putInt(b, header.size() + 4);
+        b.writeBytes(header.toByteArray());
+        unicode(b, TRANSFORM_NAME);
+        putInt(b, 1);
+        putInt(b, 1);
+        putInt(b, 1);
+        // EncryptionTransformInfo: 名前なし、鍵の長さ・アルゴリズムは EncryptionInfo に記載
+        putInt(b, 0);
+        putInt(b, 0);
+        putInt(b, 0);
+        putInt(b, 4);
+        return b.toByteArray();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 長さ付きの UTF-16LE 文字列を、4 バイト境界まで埋めて書き込みます。
+     */
+    private static void unicode(ByteArrayOutputStream b, String s) {
+
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_16LE);
+        putInt(b, bytes.length);
+        b.writeBytes(bytes);
+        for(int n = bytes.length; n % 4 != 0; n++) {
+            b.write(0);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void putInt(ByteArrayOutputStream b, int value) {
+
+        b.write(value);
+        b.write(value >> 8);
+        b.write(value >> 16);
+        b.write(value >> 24);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パッケージを書き出すバッファです。暗号化するときに内容を複製しないよう、内部の配列をそのまま渡します。
+     */
+    static final class Buffer extends ByteArrayOutputStream {
+
+        Buffer() {
+            super(64 * 1024);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,341 @@
+package pakahi.excel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * パーツを OPC パッケージ（ZIP 形式）として書き出します。
+ * [Content_Types].xml・_rels/.rels を先頭に置き、残りのパーツはテンプレートの順番で書き出します。
+ * テンプレートから変更されていないパーツは、テンプレートで圧縮済みのデータをそのままコピーします。
+ * 変更されたパーツは Executor があれば並列に圧縮し、大きなパーツは区間に分けて圧縮します。
+ * メモリ上にないパーツ（{@link IPartStore#isInMemory(String)} が false）は、内容全体を読み込まずに少しずつ読み込んで圧縮します。
+ */
+final class PackageWriter {
+
+    static final String PACKAGE_RELS = "_rels/.rels";
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+
+    private static final int VERSION = 20;
+
+    // ファイル名が UTF-8 であることを示すフラグ
+    private static final int UTF8 = 0x0800;
+
+    // 並列に圧縮するときの区間の大きさ
+    private static final int CHUNK = 1024 * 1024;
+
+    // メモリ上にないパーツを並列に圧縮するときに、読み込んで保持する区間の数の上限
+    private static final int WINDOW = Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private final OutputStream output;
+    private final ByteArrayOutputStream central = new ByteArrayOutputStream();
+    private final byte[] header = new byte[46];
+    private final int time;
+    private final int date;
+    private long offset = 0;
+    private int entries = 0;
+
+
+    //------------------------------------------------------------------------------------------------
+    private PackageWriter(OutputStream output) {
+
+        this.output = output;
+
+        LocalDateTime now = LocalDateTime.now();
+        time = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        date = ((now.getYear() - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パーツを OPC パッケージとして書き出します。出力ストリームは閉じません。
+     * @param parts パーツの保持場所
+     * @param template 圧縮済みのパーツを持つテンプレート
+     * @param output 出力ストリーム
+     * @param level 圧縮レベル（-1 ～ 9）。0 の場合は圧縮せずに格納（STORED）
+     * @param executor パーツを並列に圧縮するための Executor。null の場合は書き出しながら順に圧縮
+     * @throws IOException 書き込みに失敗した場合、またはパッケージに必須のパーツがない場合
+     */
+    static void write(IPartStore parts, CompiledTemplate template, OutputStream output,
+                      int level, Executor executor) throws IOException {
+
+        if( ! parts.contains(CompiledTemplate.CONTENT_TYPES) || ! parts.contains(PACKAGE_RELS)) {
+            throw new IOException("The package has no "
+                + ( ! parts.contains(CompiledTemplate.CONTENT_TYPES) ? CompiledTemplate.CONTENT_TYPES : PACKAGE_RELS) + ".");
+        }
+
+        Set<String> all = parts.getNames();
+        List<String> names = new ArrayList<>(all.size());
+        names.add(CompiledTemplate.CONTENT_TYPES);
+        names.add(PACKAGE_RELS);
+        for(String name : all) {
+            if( ! name.equals(CompiledTemplate.CONTENT_TYPES) && ! name.equals(PACKAGE_RELS)) {
+                names.add(name);
+            }
+        }
+
+        PackageWriter writer = new PackageWriter(output);
+
+        if(executor == null) {
+            for(String name : names) {
+                if(level != 0 && ! parts.isInMemory(name)) {
+                    try(InputStream input = parts.openInput(name)) {
+                        writer.put(name, DeflatedPart.deflate(input, level));
+                    }
+                    continue;
+                }
+                byte[] bytes = parts.get(name);
+                DeflatedPart part = template != null ? template.getDeflatedPart(name, bytes) : null;
+                writer.put(name, part != null ? part : compress(bytes, level));
+            }
+
+        } else {
+            // テンプレートから変更されたパーツを全て並列に圧縮し、順番に書き出す
+            List<CompletableFuture<DeflatedPart>> results = new ArrayList<>(names.size());
+            for(String name : names) {
+                if(level != 0 && ! parts.isInMemory(name)) {
+                    try(InputStream input = parts.openInput(name)) {
+                        results.add(compress(input, level, executor));
+                    }
+                    continue;
+                }
+                byte[] bytes = parts.get(name);
+                DeflatedPart part = template != null ? template.getDeflatedPart(name, bytes) : null;
+                results.add(part != null ? CompletableFuture.completedFuture(part) : compress(bytes, level, executor));
+            }
+
+            try {
+                for(int i = 0; i < names.size(); i++) {
+                    writer.put(names.get(i), results.get(i).join());
+                }
+            } catch(CompletionException ex) {
+                throw ex.getCause() instanceof RuntimeException ? (RuntimeException)ex.getCause() : new WorkbookException(ex.getCause());
+            }
+        }
+
+        writer.finish();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static DeflatedPart compress(byte[] bytes, int level) {
+
+        return level == 0 ? DeflatedPart.store(bytes) : DeflatedPart.deflate(bytes, level);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * パーツを並列に圧縮します。大きなパーツは区間に分けて圧縮し、CRC も別に計算します。
+     */
+    private static CompletableFuture<DeflatedPart> compress(byte[] bytes, int level, Executor executor) {
+
+        if(level == 0 || bytes.length <= CHUNK) {
+            return CompletableFuture.supplyAsync(() -> compress(bytes, level), executor);
+        }
+
+        int count = (bytes.length + CHUNK - 1) / CHUNK;
+        List<CompletableFuture<byte[]>> chunks = new ArrayList<>(count);
+
+        for(int i = 0; i < count; i++) {
+            int offset = i * CHUNK;
+            int length = Math.min(CHUNK, bytes.length - offset);
+            boolean last = i == count - 1;
+            chunks.add(CompletableFuture.supplyAsync(() -> DeflatedPart.deflate(bytes, offset, length, last, level), executor));
+        }
+
+        CompletableFuture<Integer> crc = CompletableFuture.supplyAsync(() -> DeflatedPart.crc(bytes, 0, bytes.length), executor);
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenCombine(crc, (v, c) -> concat(chunks, c, bytes.length));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * メモリ上にないパーツを区間ごとに読み込み、並列に圧縮します。各区間の前には直前の 32KB を辞書として付けておきます。
+     * 読み込んで保持する区間は WINDOW 個までとし、CRC は読み込みながら順に計算します。
+     */
+    private static CompletableFuture<DeflatedPart> compress(InputStream input, int level, Executor executor) throws IOException {
+
+        List<CompletableFuture<byte[]>> chunks = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        long size = 0;
+
+        byte[] current = new byte[CHUNK];
+        int start = 0;
+        int length = input.readNBytes(current, 0, CHUNK);
+
+        while(true) {
+            // 次の区間を読み込んでおき、この区間が最後かどうかを決める
+            byte[] next = null;
+            int nextStart = 0;
+            int nextLength = 0;
+
+            if(length == CHUNK) {
+                nextStart = Math.min(DeflatedPart.DICTIONARY, start + length);
+                next = new byte[nextStart + CHUNK];
+                System.arraycopy(current, start + length - nextStart, next, 0, nextStart);
+                nextLength = input.readNBytes(next, nextStart, CHUNK);
+            }
+
+            crc.update(current, start, length);
+            size += length;
+            if(size > DeflatedPart.MAX_SIZE) {
+                throw new IOException("The part is too large to be written without ZIP64.");
+            }
+
+            byte[] b = current;
+            int offset = start;
+            int n = length;
+            boolean last = nextLength == 0;
+            chunks.add(CompletableFuture.supplyAsync(() -> DeflatedPart.deflate(b, offset, n, last, level), executor));
+
+            // 失敗は書き出すときに join で受け取るので、ここでは終わるのを待つだけにする
+            if(chunks.size() > WINDOW) {
+                chunks.get(chunks.size() - 1 - WINDOW).handle((r, ex) -> r).join();
+            }
+
+            if(last) {
+                break;
+            }
+
+            current = next;
+            start = nextStart;
+            length = nextLength;
+        }
+
+        int c = (int)crc.getValue();
+        int total = (int)size;
+
+        return CompletableFuture.allOf(chunks.toArray(new CompletableFuture<?>[0])).thenApply(v -> concat(chunks, c, total));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 区間ごとの圧縮データを連結します。
+     */
+    private static DeflatedPart concat(List<CompletableFuture<byte[]>> chunks, int crc, int size) {
+
+        int length = 0;
+        for(CompletableFuture<byte[]> chunk : chunks) {
+            length += chunk.join().length;
+        }
+
+        byte[] data = new byte[length];
+        int p = 0;
+        for(CompletableFuture<byte[]> chunk : chunks) {
+            byte[] b = chunk.join();
+            System.arraycopy(b, 0, data, p, b.length);
+            p += b.length;
+        }
+
+        return new DeflatedPart(DeflatedPart.DEFLATED, data, crc, size);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void put(String name, DeflatedPart part) throws IOException {
+
+        if(entries == 0xffff || offset + part.data.length >= 0xffffffffL) {
+            throw new IOException("The package is too large to be written without ZIP64.");
+        }
+
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+
+        int i = 0;
+        i = putInt(header, i, LOCAL_HEADER);
+        i = putShort(header, i, VERSION);
+        i = putEntry(header, i, part, n.length);
+        i = putShort(header, i, 0);
+
+        output.write(header, 0, i);
+        output.write(n);
+        output.write(part.data);
+
+        i = 0;
+        i = putInt(header, i, CENTRAL_HEADER);
+        i = putShort(header, i, VERSION);
+        i = putShort(header, i, VERSION);
+        i = putEntry(header, i, part, n.length);
+        i = putShort(header, i, 0);
+        i = putShort(header, i, 0);
+        i = putShort(header, i, 0);
+        i = putShort(header, i, 0);
+        i = putInt(header, i, 0);
+        i = putInt(header, i, (int)offset);
+
+        central.write(header, 0, i);
+        central.write(n);
+
+        offset += 30 + n.length + part.data.length;
+        entries++;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void finish() throws IOException {
+
+        int i = 0;
+        i = putInt(header, i, END_OF_CENTRAL_DIRECTORY);
+        i = putShort(header, i, 0);
+        i = putShort(header, i, 0);
+        i = putShort(header, i, entries);
+        i = putShort(header, i, entries);
+        i = putInt(header, i, central.size());
+        i = putInt(header, i, (int)offset);
+        i = putShort(header, i, 0);
+
+        central.writeTo(output);
+        output.write(header, 0, i);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * ローカルヘッダと中央ディレクトリで共通の、フラグからファイル名の長さまでを書き込みます。
+     */
+    private int putEntry(byte[] b, int i, DeflatedPart part, int nameLength) {
+
+        i = putShort(b, i, UTF8);
+        i = putShort(b, i, part.method);
+        i = putShort(b, i, time);
+        i = putShort(b, i, date);
+        i = putInt(b, i, part.crc);
+        i = putInt(b, i, part.data.length);
+        i = putInt(b, i, part.size);
+        i = putShort(b, i, nameLength);
+        return i;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int putShort(byte[] b, int i, int value) {
+
+        b[i] = (byte)value;
+        b[i + 1] = (byte)(value >> 8);
+        return i + 2;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int putInt(byte[] b, int i, int value) {
+
+        b[i] = (byte)value;
+        b[i + 1] = (byte)(value >> 8);
+        b[i + 2] = (byte)(value >> 16);
+        b[i + 3] = (byte)(value >> 24);
+        return i + 4;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,154 @@
+package pakahi.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 使い回されるバッファを通して、出力ストリームまたはチャネルに書き込む出力ストリームです。
+ * 閉じるとバッファの内容を書き出してバッファを返却しますが、書き込み先は閉じません。スレッドセーフではありません。
+ */
+final class PooledOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int POOL_SIZE = 16;
+
+    private static final Queue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger POOLED = new AtomicInteger();
+
+    private final OutputStream output;
+    private final WritableByteChannel channel;
+    private byte[] buffer;
+    private int length;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 出力ストリームに書き込みます。
+     * @param output 書き込み先
+     */
+    PooledOutputStream(OutputStream output) {
+
+        this(output, null);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * チャネルに書き込みます。
+     * @param channel 書き込み先
+     */
+    PooledOutputStream(WritableByteChannel channel) {
+
+        this(null, channel);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private PooledOutputStream(OutputStream output, WritableByteChannel channel) {
+
+        this.output = output;
+        this.channel = channel;
+
+        buffer = POOL.poll();
+        if(buffer != null) {
+            POOLED.decrementAndGet();
+        } else {
+            buffer = new byte[BUFFER_SIZE];
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void write(int b) throws IOException {
+
+        if(length == buffer.length) {
+            drain();
+        }
+        buffer[length++] = (byte)b;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        // バッファより大きい書き込みはそのまま渡す
+        if(len >= buffer.length) {
+            drain();
+            write(ByteBuffer.wrap(b, off, len));
+            return;
+        }
+
+        if(len > buffer.length - length) {
+            drain();
+        }
+
+        System.arraycopy(b, off, buffer, length, len);
+        length += len;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void flush() throws IOException {
+
+        drain();
+        if(output != null) {
+            output.flush();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * バッファの内容を書き出し、バッファを返却します。書き込み先は閉じません。
+     */
+    @Override
+    public void close() throws IOException {
+
+        if(buffer == null) {
+            return;
+        }
+
+        try {
+            flush();
+
+        } finally {
+            if(POOLED.incrementAndGet() <= POOL_SIZE) {
+                POOL.offer(buffer);
+            } else {
+                POOLED.decrementAndGet();
+            }
+            buffer = null;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void drain() throws IOException {
+
+        if(length > 0) {
+            write(ByteBuffer.wrap(buffer, 0, length));
+            length = 0;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void write(ByteBuffer bytes) throws IOException {
+
+        if(channel == null) {
+            output.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+            return;
+        }
+
+        while(bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -5,6 +5,9 @@ import java.lang.annotation.*;
 //----------------------------------------------------------------------------------------------------
 /**
  * セルアドレスを A1 形式で指示するアノテーションです。
+ * フィールドが List・Iterable・Iterator・Spliterator・Stream・{@link IRowSupplier} の場合は、表領域の左上のセルを指示します。
+ * フィールドが double[]・int[]・long[]・LocalDate[]・String[] の場合は、配列の長さだけ行を挿入して指示したセルから下へ記入し、
+ * double[][] の場合は外側の配列の長さだけ行を挿入して各行を指示したセルから右へ記入します。
  */
 @Target(ElementType.FIELD)
 @Retention(RetentionPolicy.RUNTIME)
@@ -12,5 +15,6 @@ import java.lang.annotation.*;
 public @interface Range {
     String sheet();
     String range();
+    boolean inlineString() default false;
 }
 //----------------------------------------------------------------------------------------------------
\ No newline at end of file
@@ -12,5 +12,6 @@ import java.lang.annotation.*;
 public @interface RangeR1C1 {
     int row() default 1;
     int column() default 1;
+    boolean inlineString() default false;
 }
 //----------------------------------------------------------------------------------------------------
\ No newline at end of file
@@ -0,0 +1,238 @@
+package pakahi.excel;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * リフレクションでフィールドを一度だけ解析し、MethodHandle 経由で値を読み出す記入方法です。
+ * プリミティブ型のフィールドはボクシングせずにワークシートへ渡されます。
+ * @param <T> データオブジェクトの型
+ */
+final class ReflectiveReportBinder<T extends IReport> extends ReportBinder<T> {
+
+    private final Map<String, List<Binding>> cells = new LinkedHashMap<>();
+    private final Map<String, List<Binding>> tables = new LinkedHashMap<>();
+    private final List<Binding> columns = new ArrayList<>();
+
+
+    //------------------------------------------------------------------------------------------------
+    ReflectiveReportBinder(Class<T> type) {
+
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+        for(Field f : type.getDeclaredFields()) {
+            try {
+                if(f.isAnnotationPresent(Range.class)) {
+                    Range range = f.getAnnotation(Range.class);
+                    Address a = new Address(range.range());
+                    MethodHandle getter = getter(lookup, f);
+
+                    if(isTable(f.getType())) {
+                        tables.computeIfAbsent(range.sheet(), k -> new ArrayList<>())
+                            .add(table(getter, range.range(), range.inlineString()));
+                    } else {
+                        cells.computeIfAbsent(range.sheet(), k -> new ArrayList<>())
+                            .add(cell(getter, f.getType(), a.getRow(), a.getColumn() - 1, range.inlineString()));
+                    }
+                }
+                if(f.isAnnotationPresent(RangeR1C1.class)) {
+                    RangeR1C1 range = f.getAnnotation(RangeR1C1.class);
+                    columns.add(cell(getter(lookup, f), f.getType(), 0, range.column() - 1, range.inlineString()));
+                }
+            } catch(Exception ex) {
+                System.out.println(Arrays.toString(ex.getStackTrace()));
+            }
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public Set<String> getSheetNames() {
+
+        Set<String> names = new LinkedHashSet<>(cells.keySet());
+        names.addAll(tables.keySet());
+        return names;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void bind(T report, String sheetName, IWorksheet worksheet) {
+
+        write(cells.get(sheetName), report, worksheet, 0, 1);
+        write(tables.get(sheetName), report, worksheet, 0, 1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public void bindRow(T item, IWorksheet worksheet, int row, int column) {
+
+        write(columns, item, worksheet, row, column);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void write(List<Binding> bindings, IReport report, IWorksheet worksheet, int row, int column) {
+
+        if(bindings == null) {
+            return;
+        }
+
+        for(Binding binding : bindings) {
+            try {
+                binding.write(report, worksheet, row, column);
+            } catch(RuntimeException | Error ex) {
+                throw ex;
+            } catch(Throwable ex) {
+                throw new WorkbookException(ex);
+            }
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Field f) throws IllegalAccessException {
+
+        MethodHandle getter = lookup.unreflectGetter(f);
+
+        // static フィールドはデータオブジェクトを受け取る形に揃える
+        if(Modifier.isStatic(f.getModifiers())) {
+            getter = MethodHandles.dropArguments(getter, 0, IReport.class);
+        }
+
+        return getter;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static Binding table(MethodHandle getter, String address, boolean inlineString) {
+
+        MethodHandle h = getter.asType(MethodType.methodType(Object.class, IReport.class));
+
+        // List 以外（Iterable・Iterator・Spliterator・Stream・IRowSupplier）は書き出すときに 1 件ずつ読み出す
+        // 配列は列ごとの値として、要素をボクシングせずに記入する
+        return (report, worksheet, r, c) -> insertRows(worksheet, address, (Object)h.invokeExact(report), inlineString);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 宣言された型ごとに、値を読み出して対応する setCellValue を呼ぶ処理を作ります。
+     * 行番号・列番号は記入時の基準位置に加算されます。
+     */
+    private static Binding cell(MethodHandle getter, Class<?> type, int row, int column, boolean inlineString) {
+
+        if(type == int.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(int.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (int)h.invokeExact(report));
+
+        } else if(type == double.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(double.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (double)h.invokeExact(report));
+
+        } else if(type == long.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(long.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (long)h.invokeExact(report));
+
+        } else if(type == float.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(float.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (float)h.invokeExact(report));
+
+        } else if(type == byte.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(byte.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (byte)h.invokeExact(report));
+
+        } else if(type == short.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(short.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (short)h.invokeExact(report));
+
+        } else if(type == boolean.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(boolean.class, IReport.class));
+            return (report, worksheet, r, c) -> worksheet.setCellValue(r + row, c + column, (Boolean)(boolean)h.invokeExact(report));
+
+        } else if(type == String.class && inlineString) {
+            MethodHandle h = getter.asType(MethodType.methodType(String.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                String value = (String)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setInlineString(r + row, c + column, value);
+                }
+            };
+
+        } else if(type == String.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(String.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                String value = (String)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setCellValue(r + row, c + column, value);
+                }
+            };
+
+        } else if(type == LocalDateTime.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(LocalDateTime.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                LocalDateTime value = (LocalDateTime)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setCellValue(r + row, c + column, value);
+                }
+            };
+
+        } else if(type == LocalDate.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(LocalDate.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                LocalDate value = (LocalDate)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setCellValue(r + row, c + column, value);
+                }
+            };
+
+        } else if(type == LocalTime.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(LocalTime.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                LocalTime value = (LocalTime)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setCellValue(r + row, c + column, value);
+                }
+            };
+
+        } else if(type == BigDecimal.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(BigDecimal.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                BigDecimal value = (BigDecimal)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setCellValue(r + row, c + column, value);
+                }
+            };
+
+        } else if(type == Instant.class) {
+            MethodHandle h = getter.asType(MethodType.methodType(Instant.class, IReport.class));
+            return (report, worksheet, r, c) -> {
+                Instant value = (Instant)h.invokeExact(report);
+                if(value != null) {
+                    worksheet.setCellValue(r + row, c + column, value);
+                }
+            };
+
+        } else {
+            // ラッパー型などは実行時の型で判定する
+            MethodHandle h = getter.asType(MethodType.methodType(Object.class, IReport.class));
+            return (report, worksheet, r, c) -> setCellValue(worksheet, r + row, c + column, (Object)h.invokeExact(report), inlineString);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @FunctionalInterface
+    private interface Binding {
+        void write(IReport report, IWorksheet worksheet, int row, int column) throws Throwable;
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
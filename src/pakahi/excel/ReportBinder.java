@@ -0,0 +1,551 @@
+package pakahi.excel;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * データオブジェクトのクラスごとに、アノテーションの付いたフィールドをワークシートに記入する方法を保持するクラスです。
+ * クラスごとに初回の使用時に一度だけ生成され、以降は再利用されます。
+ * 注釈プロセッサにより生成されたサブクラスがあればそれを使用し、なければリフレクションで生成します。
+ * @param <T> データオブジェクトの型
+ */
+public abstract class ReportBinder<T extends IReport> {
+
+    private static final ClassValue<ReportBinder<?>> BINDERS = new ClassValue<>() {
+        @Override
+        protected ReportBinder<?> computeValue(Class<?> type) {
+            ReportBinder<?> binder = loadGenerated(type);
+            return binder != null ? binder : new ReflectiveReportBinder<>(type.asSubclass(IReport.class));
+        }
+    };
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * データオブジェクトのクラスに対応する記入方法を返します。
+     * @param type データオブジェクトのクラス
+     * @param <T> データオブジェクトの型
+     * @return 記入方法
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends IReport> ReportBinder<T> of(Class<T> type) {
+
+        return (ReportBinder<T>)BINDERS.get(type);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 注釈プロセッサ（pakahi.excel.processor.ReportBinderProcessor）が生成した記入方法を読み込みます。
+     * 生成されていなければ null を返します。
+     */
+    private static ReportBinder<?> loadGenerated(Class<?> type) {
+
+        String name = type.getName();
+        String packageName = type.getPackageName();
+        String simpleName = name.substring(packageName.isEmpty() ? 0 : packageName.length() + 1).replace('$', '_');
+
+        try {
+            Class<?> c = Class.forName((packageName.isEmpty() ? "" : packageName + ".") + simpleName + "_ReportBinder",
+                true, type.getClassLoader());
+            if(ReportBinder.class.isAssignableFrom(c)) {
+                return (ReportBinder<?>)c.getConstructor().newInstance();
+            }
+        } catch(ClassNotFoundException ex) {
+            return null;
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+        }
+
+        return null;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link Range} で指定されたシート名（表示名）の一覧を返します。
+     * @return シート名のセット
+     */
+    public abstract Set<String> getSheetNames();
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link Range} の付いたフィールドのうち、指定したシートのものを記入します。
+     * セルへの記入を先に行い、表領域への行の挿入はその後に登録します。
+     * @param report データオブジェクト
+     * @param sheetName シート名（表示名）
+     * @param worksheet 記入先のワークシート
+     */
+    public abstract void bind(T report, String sheetName, IWorksheet worksheet);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link RangeR1C1} の付いたフィールドを表領域の一行として記入します。
+     * @param item 表領域の要素
+     * @param worksheet 記入先のワークシート
+     * @param row 記入する行番号
+     * @param column 表領域の左端の列番号
+     */
+    public abstract void bindRow(T item, IWorksheet worksheet, int row, int column);
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各要素をそのクラスの記入方法で記入します。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param items 表領域の要素
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, List<? extends IReport> items) {
+
+        if(items == null || items.isEmpty()) {
+            return;
+        }
+
+        int column = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, items, (sheet, r, e) -> bindItem(e, sheet, r, column));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素を 1 件ずつ読み出しながら行を挿入し、各要素をそのクラスの記入方法で記入します。
+     * 要素はワークシートを書き出すときに読み出されます。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param items 表領域の要素
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, Iterable<? extends IReport> items) {
+
+        if(items instanceof List) {
+            insertRows(worksheet, address, (List<? extends IReport>)items);
+        } else if(items != null) {
+            insertRows(worksheet, address, items.iterator());
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素を 1 件ずつ読み出しながら行を挿入し、各要素をそのクラスの記入方法で記入します。
+     * 要素はワークシートを書き出すときに読み出されます。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param items 表領域の要素
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, Iterator<? extends IReport> items) {
+
+        if(items == null) {
+            return;
+        }
+
+        int column = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, items, (sheet, r, e) -> bindItem(e, sheet, r, column));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素を 1 件ずつ読み出しながら行を挿入し、各要素をそのクラスの記入方法で記入します。
+     * 要素はワークシートを書き出すときに読み出されます。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param items 表領域の要素
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, Spliterator<? extends IReport> items) {
+
+        if(items != null) {
+            insertRows(worksheet, address, Spliterators.iterator(items));
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素を 1 件ずつ読み出しながら行を挿入し、各要素をそのクラスの記入方法で記入します。
+     * 要素はワークシートを書き出すときに読み出され、最後まで読み出した後にストリームを閉じます。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param items 表領域の要素
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, Stream<? extends IReport> items) {
+
+        if(items != null) {
+            insertRows(worksheet, address, new StreamIterator<>(items));
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素を 1 件ずつ読み出しながら行を挿入し、各要素をそのクラスの記入方法で記入します。
+     * 要素はワークシートを書き出すときに、null が返されるまで読み出されます。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param items 表領域の要素
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, IRowSupplier<? extends IReport> items) {
+
+        if(items != null) {
+            insertRows(worksheet, address, new SupplierIterator<>(items));
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に配列の要素の数だけ行を挿入し、左端の列に要素を 1 件ずつ記入します。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param column 記入する列の値
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, double[] column) {
+
+        if(column == null || column.length == 0) {
+            return;
+        }
+
+        int c = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, column.length, (sheet, r, i) -> sheet.setCellValue(r, c, column[i]));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に配列の要素の数だけ行を挿入し、左端の列に要素を 1 件ずつ記入します。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param column 記入する列の値
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, int[] column) {
+
+        if(column == null || column.length == 0) {
+            return;
+        }
+
+        int c = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, column.length, (sheet, r, i) -> sheet.setCellValue(r, c, column[i]));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に配列の要素の数だけ行を挿入し、左端の列に要素を 1 件ずつ記入します。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param column 記入する列の値
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, long[] column) {
+
+        if(column == null || column.length == 0) {
+            return;
+        }
+
+        int c = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, column.length, (sheet, r, i) -> sheet.setCellValue(r, c, column[i]));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に配列の要素の数だけ行を挿入し、左端の列に要素を 1 件ずつ記入します。null の要素は記入しません。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param column 記入する列の値
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, LocalDate[] column) {
+
+        if(column == null || column.length == 0) {
+            return;
+        }
+
+        int c = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, column.length, (sheet, r, i) -> {
+            if(column[i] != null) {
+                sheet.setCellValue(r, c, column[i]);
+            }
+        });
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に配列の要素の数だけ行を挿入し、左端の列に要素を 1 件ずつ記入します。null の要素は記入しません。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param column 記入する列の値
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, String[] column) {
+
+        insertRows(worksheet, address, column, false);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に配列の要素の数だけ行を挿入し、左端の列に要素を 1 件ずつ記入します。null の要素は記入しません。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param column 記入する列の値
+     * @param inlineString 共有文字列を使わずに記入する場合は true
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, String[] column, boolean inlineString) {
+
+        if(column == null || column.length == 0) {
+            return;
+        }
+
+        int c = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, column.length, (sheet, r, i) -> {
+            if(column[i] == null) {
+                return;
+            }
+            if(inlineString) {
+                sheet.setInlineString(r, c, column[i]);
+            } else {
+                sheet.setCellValue(r, c, column[i]);
+            }
+        });
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に外側の配列の要素の数だけ行を挿入し、各行に内側の配列の値を左端の列から順に記入します。
+     * 内側の配列の長さは行ごとに異なっていても構いません。null の行は記入しません。
+     * @param worksheet 記入先のワークシート
+     * @param address 表領域の左上のセルアドレス
+     * @param block 行ごとの値
+     */
+    protected static void insertRows(IWorksheet worksheet, String address, double[][] block) {
+
+        if(block == null || block.length == 0) {
+            return;
+        }
+
+        int c = CellReference.column(Address.reference(address));
+
+        worksheet.insertRows(address, block.length, (sheet, r, i) -> {
+            double[] values = block[i];
+            if(values != null) {
+                for(int j = 0; j < values.length; j++) {
+                    sheet.setCellValue(r, c + j, values[j]);
+                }
+            }
+        });
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 実行時の型に応じて表領域の要素を登録します（リフレクションによる記入方法から呼び出します）。
+     */
+    @SuppressWarnings("unchecked")
+    static void insertRows(IWorksheet worksheet, String address, Object items, boolean inlineString) {
+
+        if(items instanceof double[]) {
+            insertRows(worksheet, address, (double[])items);
+        } else if(items instanceof int[]) {
+            insertRows(worksheet, address, (int[])items);
+        } else if(items instanceof long[]) {
+            insertRows(worksheet, address, (long[])items);
+        } else if(items instanceof LocalDate[]) {
+            insertRows(worksheet, address, (LocalDate[])items);
+        } else if(items instanceof String[]) {
+            insertRows(worksheet, address, (String[])items, inlineString);
+        } else if(items instanceof double[][]) {
+            insertRows(worksheet, address, (double[][])items);
+        } else if(items instanceof Iterable) {
+            insertRows(worksheet, address, (Iterable<? extends IReport>)items);
+        } else if(items instanceof Iterator) {
+            insertRows(worksheet, address, (Iterator<? extends IReport>)items);
+        } else if(items instanceof Spliterator) {
+            insertRows(worksheet, address, (Spliterator<? extends IReport>)items);
+        } else if(items instanceof Stream) {
+            insertRows(worksheet, address, (Stream<? extends IReport>)items);
+        } else if(items instanceof IRowSupplier) {
+            insertRows(worksheet, address, (IRowSupplier<? extends IReport>)items);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域の要素として使用できる型かどうかを返します。
+     * @param type フィールドの型
+     * @return List・Iterable・Iterator・Spliterator・Stream・IRowSupplier、
+     *         または double[]・int[]・long[]・LocalDate[]・String[]・double[][] のいずれかであれば true
+     */
+    static boolean isTable(Class<?> type) {
+
+        return type == double[].class || type == int[].class || type == long[].class
+            || type == LocalDate[].class || type == String[].class || type == double[][].class
+            || Iterable.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type)
+            || Spliterator.class.isAssignableFrom(type) || Stream.class.isAssignableFrom(type)
+            || IRowSupplier.class.isAssignableFrom(type);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @SuppressWarnings("unchecked")
+    private static <T extends IReport> void bindItem(T item, IWorksheet worksheet, int row, int column) {
+
+        of((Class<T>)item.getClass()).bindRow(item, worksheet, row, column);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 宣言された型が定まらない値を、実行時の型に応じて記入します。対応しない型と null は無視されます。
+     * @param worksheet 記入先のワークシート
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 値
+     */
+    protected static void setCellValue(IWorksheet worksheet, int row, int column, Object value) {
+
+        setCellValue(worksheet, row, column, value, false);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 宣言された型が定まらない値を、実行時の型に応じて記入します。対応しない型と null は無視されます。
+     * @param worksheet 記入先のワークシート
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 値
+     * @param inlineString 文字列を共有文字列を使わずに記入する場合は true
+     */
+    protected static void setCellValue(IWorksheet worksheet, int row, int column, Object value, boolean inlineString) {
+
+        if(value == null) {
+            return;
+        }
+
+        Class<?> type = value.getClass();
+
+        if(type.equals(Integer.class)) {
+            worksheet.setCellValue(row, column, (int)value);
+
+        } else if(type.equals(Double.class)) {
+            worksheet.setCellValue(row, column, (double)value);
+
+        } else if(type.equals(String.class) && inlineString) {
+            worksheet.setInlineString(row, column, (String)value);
+
+        } else if(type.equals(String.class)) {
+            worksheet.setCellValue(row, column, (String)value);
+
+        } else if(type.equals(Long.class)) {
+            worksheet.setCellValue(row, column, (long)value);
+
+        } else if(type.equals(Float.class)) {
+            worksheet.setCellValue(row, column, (float)value);
+
+        } else if(type.equals(Byte.class)) {
+            worksheet.setCellValue(row, column, (byte)value);
+
+        } else if(type.equals(Short.class)) {
+            worksheet.setCellValue(row, column, (short)value);
+
+        } else if(type.equals(Boolean.class)) {
+            worksheet.setCellValue(row, column, (Boolean)value);
+
+        } else if(type.equals(LocalDateTime.class)) {
+            worksheet.setCellValue(row, column, (LocalDateTime)value);
+
+        } else if(type.equals(LocalDate.class)) {
+            worksheet.setCellValue(row, column, (LocalDate)value);
+
+        } else if(type.equals(LocalTime.class)) {
+            worksheet.setCellValue(row, column, (LocalTime)value);
+
+        } else if(type.equals(BigDecimal.class)) {
+            worksheet.setCellValue(row, column, (BigDecimal)value);
+
+        } else if(type.equals(Instant.class)) {
+            worksheet.setCellValue(row, column, (Instant)value);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ストリームの要素を読み出し、最後まで読み出したらストリームを閉じます。
+     */
+    private static final class StreamIterator<T> implements Iterator<T> {
+
+        private final Stream<T> stream;
+        private final Iterator<T> iterator;
+        private boolean closed;
+
+        StreamIterator(Stream<T> stream) {
+            this.stream = stream;
+            this.iterator = stream.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(closed) {
+                return false;
+            }
+            if(iterator.hasNext()) {
+                return true;
+            }
+            closed = true;
+            stream.close();
+            return false;
+        }
+
+        @Override
+        public T next() {
+            if( ! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return iterator.next();
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link IRowSupplier} の要素を、null が返されるまで読み出します。
+     */
+    private static final class SupplierIterator<T extends IReport> implements Iterator<T> {
+
+        private final IRowSupplier<T> supplier;
+        private T next;
+        private boolean done;
+
+        SupplierIterator(IRowSupplier<T> supplier) {
+            this.supplier = supplier;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if(next == null && ! done) {
+                try {
+                    next = supplier.next();
+                } catch(RuntimeException ex) {
+                    throw ex;
+                } catch(Exception ex) {
+                    throw new WorkbookException(ex);
+                }
+                done = next == null;
+            }
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if( ! hasNext()) {
+                throw new NoSuchElementException();
+            }
+            T item = next;
+            next = null;
+            return item;
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,104 @@
+package pakahi.excel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ワークシートへの行の挿入をまとめて計画するクラスです。
+ * 挿入位置ごとの行のずれをあらかじめ計算し、一度の走査で全ての行番号を付け替えられるようにします。
+ */
+public class RowInsertionPlan {
+
+    // 挿入を開始する行番号（テンプレート上）ごとの行数
+    TreeMap<Integer, Integer> insertions = new TreeMap<>();
+
+    // 挿入位置と、その位置より後ろの行のずれの累計
+    int[] rows;
+    int[] offsets;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行の挿入を追加します。同じ行に複数の挿入がある場合は、行数の多い方に合わせます。
+     * @param from 挿入を開始する行番号。この行がひな形として複製されます
+     * @param count 挿入後の表領域の行数
+     * @return この計画オブジェクト
+     */
+    public RowInsertionPlan add(int from, int count) {
+
+        if(count < 1) {
+            return this;
+        }
+
+        insertions.merge(from, count, Math::max);
+        rows = null;
+
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 挿入の一覧を行番号の順に返します。
+     * @return 挿入を開始する行番号と行数
+     */
+    public NavigableMap<Integer, Integer> getInsertions() {
+
+        return Collections.unmodifiableNavigableMap(insertions);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 挿入がないかどうかを返します。
+     * @return 挿入がなければ true
+     */
+    public boolean isEmpty() {
+
+        return insertions.isEmpty();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレート上の行番号を、全ての挿入を行った後の行番号に変換します。
+     * @param row テンプレート上の行番号
+     * @return 挿入後の行番号
+     */
+    public int map(int row) {
+
+        if(rows == null) {
+            compile();
+        }
+
+        // 指定した行より前にある挿入位置の数
+        int i = Arrays.binarySearch(rows, row);
+        int n = i >= 0 ? i : -i - 1;
+
+        return n == 0 ? row : row + offsets[n - 1];
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void compile() {
+
+        rows = new int[insertions.size()];
+        offsets = new int[insertions.size()];
+
+        int i = 0;
+        int offset = 0;
+
+        for(Map.Entry<Integer, Integer> e : insertions.entrySet()) {
+            offset += e.getValue() - 1;
+            rows[i] = e.getKey();
+            offsets[i] = offset;
+            i++;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,156 @@
+package pakahi.excel;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * テンプレートの共有文字列（/xl/sharedStrings.xml）を一度だけ解析した、不変の文字列表です。
+ * 全ての {@link SharedStrings} から共有され、出力時には元の &lt;si&gt; 要素をそのままのバイト列で書き出します。
+ */
+final class SharedStringTable {
+
+    // 名前空間の接頭辞が付いていてもよい <sst> の開始タグ
+    private static final Pattern START = Pattern.compile("<(([A-Za-z_][\\w.\\-]*:)?)sst(?=[\\s>/])");
+    private static final Pattern COUNTS = Pattern.compile("\\s+(count|uniqueCount)\\s*=\\s*(\"[^\"]*\"|'[^']*')");
+
+    private static final byte[] COUNT = " count=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] UNIQUE_COUNT = "\" uniqueCount=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] START_END = "\">".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<String> strings;
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final byte[] head;
+    private final byte[] body;
+    private final byte[] tail;
+
+    // 追加された文字列の <si> のタグ（接頭辞付き）
+    private final byte[] itemStart;
+    private final byte[] itemPreserveStart;
+    private final byte[] itemEnd;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートの共有文字列の文字列表を作成します。
+     * @param strings &lt;si&gt; ごとの文字列
+     * @param bytes 共有文字列のパーツ
+     */
+    SharedStringTable(List<String> strings, byte[] bytes) {
+
+        this.strings = Collections.unmodifiableList(strings);
+
+        // 重複があれば先頭のインデックスを使う
+        for(int i = 0; i < strings.size(); i++) {
+            indexes.putIfAbsent(strings.get(i), i);
+        }
+
+        String xml = new String(bytes, StandardCharsets.UTF_8);
+        Matcher m = START.matcher(xml);
+
+        if( ! m.find()) {
+            throw new WorkbookException("The shared string table has no <sst> element.", null);
+        }
+
+        int end = xml.indexOf('>', m.end());
+        boolean empty = xml.charAt(end - 1) == '/';
+
+        // count・uniqueCount は出力時に付け直す
+        String start = xml.substring(0, empty ? end - 1 : end);
+        String attributes = COUNTS.matcher(start.substring(m.end())).replaceAll("");
+
+        String prefix = m.group(1);
+        head = (start.substring(0, m.end()) + attributes.stripTrailing()).getBytes(StandardCharsets.UTF_8);
+
+        if(empty) {
+            body = new byte[0];
+            tail = ("</" + prefix + "sst>").getBytes(StandardCharsets.UTF_8);
+        } else {
+            int close = xml.lastIndexOf("</" + prefix + "sst");
+            body = xml.substring(end + 1, close).getBytes(StandardCharsets.UTF_8);
+            tail = xml.substring(close).getBytes(StandardCharsets.UTF_8);
+        }
+
+        itemStart = ("<" + prefix + "si><" + prefix + "t>").getBytes(StandardCharsets.UTF_8);
+        itemPreserveStart = ("<" + prefix + "si><" + prefix + "t xml:space=\"preserve\">").getBytes(StandardCharsets.UTF_8);
+        itemEnd = ("</" + prefix + "t></" + prefix + "si>").getBytes(StandardCharsets.UTF_8);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートの文字列の数を返します。
+     * @return 文字列の数
+     */
+    int size() {
+
+        return strings.size();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * &lt;si&gt; ごとの文字列を返します。
+     * @return 変更できない文字列のリスト
+     */
+    List<String> getStrings() {
+
+        return strings;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートにある文字列のインデックスを返します。
+     * @param s 文字列
+     * @return インデックス。なければ -1
+     */
+    int indexOf(String s) {
+
+        Integer index = indexes.get(s);
+        return index != null ? index : -1;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートの文字列に追加された文字列を続けて、共有文字列のパーツを書き出します。
+     * @param added 追加された文字列
+     * @param count セルから参照されている数（count 属性）
+     * @return 共有文字列のパーツ
+     */
+    byte[] write(List<String> added, int count) {
+
+        int uniqueCount = strings.size() + added.size();
+
+        XmlWriter writer = XmlWriter.acquire();
+
+        try {
+            writer.write(head);
+            writer.write(COUNT).writeLong(count).write(UNIQUE_COUNT).writeLong(uniqueCount).write(START_END);
+            writer.write(body);
+
+            for(String value : added) {
+                boolean preserve = ! value.isEmpty() && (Character.isWhitespace(value.charAt(0)) || Character.isWhitespace(value.charAt(value.length() - 1)));
+                writer.write(preserve ? itemPreserveStart : itemStart);
+                writer.writeText(value);
+                writer.write(itemEnd);
+            }
+
+            writer.write(tail);
+
+            return writer.toByteArray();
+
+        } finally {
+            writer.release();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -1,247 +1,94 @@
 package pakahi.excel;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.xml.sax.InputSource;
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.StringReader;
-import java.io.StringWriter;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
 
 
 
 //----------------------------------------------------------------------------------------------------
 /**
  * 共有文字列（/xl/sharedString.xml）を保持・操作するクラスです。
+ * テンプレートの文字列表は {@link CompiledTemplate} と共有し、このクラスは追加された文字列だけを保持します。
  */
 public class SharedStrings {
 
-    Path template;
-    File file;
-    Document xml;
+    IPartStore parts;
+    SharedStringTable base;
     List<String> sharedStrings = new ArrayList<>();
+    HashMap<String, Integer> indexes = new HashMap<>();
     int count = 0;
-    int uniqueCount = 0;
-    NamespaceContext context;
 
 
     //------------------------------------------------------------------------------------------------
     /**
      * 共有文字列（/xl/sharedString.xml）を保持・操作するクラスのコンストラクタです。
-     * @param template テンプレートとなる SpreadsheetML 構造のパス
+     * @param template 読み込み済みのテンプレート
+     * @param parts 出力先となる SpreadsheetML 構造の各パーツ
      */
-    public SharedStrings(Path template) {
+    public SharedStrings(CompiledTemplate template, IPartStore parts) {
 
-        this.template = template;
-        file = Paths.get(template.toString(), "xl/sharedStrings.xml").toFile();
-
-        context = new ExcelNamespaceContext();
-
-        if(load()) {
-            List<Element> nodes = XPath.selectNodes(xml, "/x:sst/x:si");
-            if(nodes != null) {
-                count = nodes.size();
-            }
-
-            List<Element> strings = XPath.selectNodes(xml, "/x:sst/x:si/x:t[1]|/x:sst/x:si/x:r[1]/x:t[1]");
-            if(strings != null) {
-                uniqueCount = strings.size();
-                sharedStrings.addAll(strings.stream().map(Element::getTextContent).collect(Collectors.toList()));
-            }
-        }
+        this.parts = parts;
+        this.base = template.getSharedStrings();
+        this.count = base.size();
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 共有文字列に文字列を追加します。
+     * 共有文字列に文字列を追加します。既にあればそのインデックスを返します。
      * @param s 追加する文字列
+     * @return 共有文字列のインデックス
      */
     public int add(String s) {
 
-        if(sharedStrings.contains(s)) {
-            return sharedStrings.indexOf(s);
+        int i = base.indexOf(s);
+
+        if(i >= 0) {
+            return i;
         }
 
-        Element si = xml.createElement("si");
-        Element t = xml.createElement("t");
-        t.setTextContent(s);
-        si.appendChild(t);
-        xml.getDocumentElement().appendChild(si);
+        Integer index = indexes.get(s);
 
+        if(index != null) {
+            return index;
+        }
+
+        index = base.size() + sharedStrings.size();
         sharedStrings.add(s);
+        indexes.put(s, index);
 
         count++;
-        uniqueCount++;
 
-        return sharedStrings.indexOf(s);
+        return index;
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 共有文字列を一時フォルダ内に保存します。
+     * シート単位の文字列表を、記入された順に共有文字列に追加します。
+     * シートの順番に呼び出すことで、逐次処理と同じインデックスになります。
+     * @param strings シート単位の文字列表
+     * @return シート内のインデックスから共有文字列のインデックスへの対応表
      */
-    public void save() {
-
-        save(file);
-
-    }
-    //------------------------------------------------------------------------------------------------
-    private void save(File file) {
-
-        try {
-            Element d = xml.getDocumentElement();
-            d.setAttribute("count", String.valueOf(count));
-            d.setAttribute("uniqueCount", String.valueOf(uniqueCount));
-            save(xml, file);
-
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-        }
-
-    }
-    //------------------------------------------------------------------------------------------------
-    private void save(Document xml, File file) {
+    int[] merge(SheetStrings strings) {
 
-        try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            DOMSource source = new DOMSource(xml);
-            StreamResult result = new StreamResult(file);
-            transformer.transform(source, result);
+        List<String> items = strings.getStrings();
+        int[] indexes = new int[items.size()];
 
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+        for(int i = 0; i < indexes.length; i++) {
+            indexes[i] = add(items.get(i));
         }
 
-    }
-    //------------------------------------------------------------------------------------------------
-    private boolean load() {
-
-        if( ! file.exists()) {
-            return restore();
-        }
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            xml = factory.newDocumentBuilder().parse(file);
-
-            if(xml.getDocumentElement().hasAttribute("count")) {
-                count = Integer.parseInt(xml.getDocumentElement().getAttribute("count"));
-            }
-            if(xml.getDocumentElement().hasAttribute("uniqueCount")) {
-                uniqueCount = Integer.parseInt(xml.getDocumentElement().getAttribute("uniqueCount"));
-            }
-
-            return true;
-
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-            return restore();
-        }
+        return indexes;
 
     }
     //------------------------------------------------------------------------------------------------
-    private boolean restore() {
-
-        String uri = context.getNamespaceURI("x");
-
-        String t = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
-        t += "<sst uniqueCount=\"0\" count=\"0\" xmlns=\"" + uri + "\"></sst>";
-
-        InputSource s = new InputSource(new StringReader(t));
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            xml = factory.newDocumentBuilder().parse(s);
-            save();
-            addWorkbookRel();
-            addContentType();
-            return true;
-
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-            return false;
-        }
-
-    }
-    //------------------------------------------------------------------------------------------------
-    private void addWorkbookRel() throws FileNotFoundException {
-
-        File file = Paths.get(template.toString(), "xl/_rels/workbook.xml.rels").toFile();
-
-        if( ! file.exists()) {
-            throw new FileNotFoundException("File \"xl/_rels/workbook.xml.rels\" not found.");
-        }
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            Document xml = factory.newDocumentBuilder().parse(file);
-
-            if(XPath.selectSingleNode(xml, "/r:Relationships/r:Relationship[@Target='sharedStrings.xml']") != null) {
-                return;
-            }
-
-            List<Element> items = XPath.selectNodes(xml, "/r:Relationships/r:Relationship");
-
-            int c = items == null ? 0 : Collections.max(items.stream()
-                .map(e -> Integer.parseInt(e.getAttribute("Id").replace("rId", "")))
-                .collect(Collectors.toList())) + 1;
-
-            Element e = xml.createElementNS(context.getNamespaceURI("r"), "Relationship");
-            e.setAttribute("Id", "rId" + c);
-            e.setAttribute("Type", "http://schemas.openxmlformats.org/officeDocument/2006/relationships/sharedStrings");
-            e.setAttribute("Target", "sharedStrings.xml");
-            xml.getDocumentElement().appendChild(e);
-            save(xml, file);
-
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-        }
-
-    }
-    //------------------------------------------------------------------------------------------------
-    private void addContentType() throws FileNotFoundException {
-
-        File file = Paths.get(template.toString(), "[Content_Types].xml").toFile();
-
-        if( ! file.exists()) {
-            throw new FileNotFoundException("File \"[Content_Types].xml\" not found.");
-        }
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            Document xml = factory.newDocumentBuilder().parse(file);
-
-            if(XPath.selectSingleNode(xml, "/t:Types/t:Override[@PartName='/xl/sharedStrings.xml']") != null) {
-                return;
-            }
-
-            Element e = xml.createElementNS(context.getNamespaceURI("t"), "Override");
-            e.setAttribute("PartName", "/xl/sharedStrings.xml");
-            e.setAttribute("ContentType", "application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml");
-            xml.getDocumentElement().appendChild(e);
-            save(xml, file);
+    /**
+     * 共有文字列をパーツとして保存します。テンプレートの文字列に追加された文字列を続けて一度に書き出します。
+     */
+    public void save() {
 
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-        }
+        parts.put(CompiledTemplate.SHARED_STRINGS, base.write(sharedStrings, count));
 
     }
     //------------------------------------------------------------------------------------------------
@@ -250,26 +97,7 @@ public class SharedStrings {
      */
     String getOuterXml() {
 
-        return getOuterXml(null);
-
-    }
-    //------------------------------------------------------------------------------------------------
-    private String getOuterXml(Node node) {
-
-        // XMLを文字列で返す（デバッグ用）
-
-        try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-//        transformer.setOutputProperty("omit-xml-declaration", "yes");
-        transformer.setOutputProperty("indent", "yes");
-
-            StringWriter writer = new StringWriter();
-            transformer.transform(new DOMSource(node != null ? node : xml.getDocumentElement()), new StreamResult(writer));
-            return writer.toString();
-
-        } catch(Exception ex) {
-            return ex.getMessage();
-        }
+        return new String(base.write(sharedStrings, count), StandardCharsets.UTF_8);
 
     }
     //------------------------------------------------------------------------------------------------
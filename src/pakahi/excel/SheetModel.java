@@ -0,0 +1,1465 @@
+package pakahi.excel;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ワークシートの XML を、行とセルの配列として保持する編集用のモデルです。
+ * 行番号・列番号・スタイル・型・値はプリミティブ型の配列に持ち、テンプレートの XML と記入した文字列は
+ * 1 つのバイト配列に置いて、その区間（開始位置と長さを 1 つの long にまとめたもの）で参照します。
+ * sheetData の外側と、セルの数式などの値以外の子要素は、テンプレートのバイト列のまま書き出します。
+ * スレッドセーフではありません。
+ */
+final class SheetModel {
+
+    // セルの型（t 属性）
+    static final byte T_NONE = 0;
+    static final byte T_SHARED = 1;
+    static final byte T_BOOLEAN = 2;
+    static final byte T_INLINE = 3;
+    static final byte T_STR = 4;
+    static final byte T_ERROR = 5;
+    static final byte T_NUMBER = 6;
+    static final byte T_DATE = 7;
+
+    private static final String[] TYPES = { null, "s", "b", "inlineStr", "str", "e", "n", "d" };
+    private static final byte[][] TYPE_ATTRIBUTES = new byte[TYPES.length][];
+
+    // 値の種類
+    static final byte V_NONE = 0;               // 値の要素なし
+    static final byte V_RAW = 1;                // テンプレートの <v> または <is> 要素そのもの
+    static final byte V_TEXT = 2;               // <v> の内容（エスケープ済み）
+    static final byte V_LONG = 3;               // <v> の内容（整数）
+    static final byte V_INLINE = 4;             // <is><t> の内容（エスケープ済み）
+    static final byte V_INLINE_PRESERVE = 5;    // <is><t xml:space="preserve"> の内容（エスケープ済み）
+
+    static {
+        for(int i = 1; i < TYPES.length; i++) {
+            TYPE_ATTRIBUTES[i] = (" t=\"" + TYPES[i] + "\"").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static final byte[] S = " s=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY_END = "/>".getBytes(StandardCharsets.US_ASCII);
+
+    // テンプレートのバイト列と、その後ろに追記した値
+    private byte[] buffer;
+    private int size;
+    private int templateSize;
+    private boolean shared;
+
+    // sheetData 要素の位置（開始タグの '<'、属性の区間、終了タグの直後）
+    private boolean present;
+    private boolean empty;
+    private Tags tags;
+    private int start;
+    private long tagAttributes;
+    private int end;
+
+    // 行番号の順の行
+    private int rowCount;
+    private int[] rowNumbers;
+    private long[] rowAttributes;
+    private int[][] rowCells;
+    private int[] rowCellCounts;
+
+    // セル。列番号の順に並べたセルの番号を各行が持つ
+    private int cellCount;
+    private int[] cellColumns;
+    private int[] cellStyles;
+    private byte[] cellTypes;
+    private byte[] valueKinds;
+    private long[] values;
+    private int[] cellExtras;
+
+    // シート単位の文字列表のインデックスを記入したセルの、そのインデックス（並列処理用。-1 は対象外）
+    private int[] locals;
+
+    // 値以外の属性・子要素を持つセルだけが参照する、変更されない付加情報（0 番は「なし」）
+    private int extraCount;
+    private long[] extraAttributes;
+    private long[] extraChildren;
+    private int[] extraSplits;
+
+
+    //------------------------------------------------------------------------------------------------
+    private SheetModel() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートの XML を解析します。sheetData の中の行とセル以外は解析しません。
+     * @param bytes ワークシートの XML（UTF-8）
+     * @return 解析したモデル
+     * @throws IllegalArgumentException XML の形式が正しくない場合
+     */
+    static SheetModel parse(byte[] bytes) {
+
+        SheetModel model = new SheetModel();
+        model.buffer = bytes;
+        model.size = bytes.length;
+        model.templateSize = bytes.length;
+        model.shared = true;
+        model.rowNumbers = new int[16];
+        model.rowAttributes = new long[16];
+        model.rowCells = new int[16][];
+        model.rowCellCounts = new int[16];
+        model.cellColumns = new int[64];
+        model.cellStyles = new int[64];
+        model.cellTypes = new byte[64];
+        model.valueKinds = new byte[64];
+        model.values = new long[64];
+        model.cellExtras = new int[64];
+        model.extraAttributes = new long[4];
+        model.extraChildren = new long[4];
+        model.extraSplits = new int[4];
+        model.extraCount = 1;
+
+        new Parser(model, bytes).parse();
+
+        return model;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * このモデルの複製を返します。テンプレートのバイト列と変更されない付加情報は共有します。
+     * @return 複製したモデル
+     */
+    SheetModel copy() {
+
+        SheetModel model = new SheetModel();
+        model.buffer = buffer;
+        model.size = size;
+        model.templateSize = templateSize;
+        model.shared = true;
+        model.present = present;
+        model.empty = empty;
+        model.tags = tags;
+        model.start = start;
+        model.tagAttributes = tagAttributes;
+        model.end = end;
+        model.rowCount = rowCount;
+        model.rowNumbers = rowNumbers.clone();
+        model.rowAttributes = rowAttributes.clone();
+        model.rowCells = new int[rowCells.length][];
+        for(int i = 0; i < rowCount; i++) {
+            model.rowCells[i] = rowCells[i].clone();
+        }
+        model.rowCellCounts = rowCellCounts.clone();
+        model.cellCount = cellCount;
+        model.cellColumns = cellColumns.clone();
+        model.cellStyles = cellStyles.clone();
+        model.cellTypes = cellTypes.clone();
+        model.valueKinds = valueKinds.clone();
+        model.values = values.clone();
+        model.cellExtras = cellExtras.clone();
+        model.extraCount = extraCount;
+        model.extraAttributes = extraAttributes;
+        model.extraChildren = extraChildren;
+        model.extraSplits = extraSplits;
+        model.locals = locals != null ? locals.clone() : null;
+        return model;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * sheetData 要素があるかどうかを返します。
+     * @return sheetData 要素があれば true
+     */
+    boolean hasSheetData() {
+
+        return present;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルの番号を返します。セルや行がなければ、順番を保って作成します。
+     * @param row 行番号
+     * @param column 列番号
+     * @return セルの番号。sheetData 要素がなければ -1
+     */
+    int getCell(int row, int column) {
+
+        if( ! present) {
+            return -1;
+        }
+
+        int r = findRow(row);
+
+        if(r < 0) {
+            r = -r - 1;
+            insertRow(r, row, 0L, new int[4], 0);
+        }
+
+        int[] cells = rowCells[r];
+        int count = rowCellCounts[r];
+        int c = findCell(cells, count, column);
+
+        if(c >= 0) {
+            return cells[c];
+        }
+
+        c = -c - 1;
+        int cell = newCell(column, -1, T_NONE, V_NONE, 0L, 0);
+
+        if(count == cells.length) {
+            cells = rowCells[r] = Arrays.copyOf(cells, count * 2);
+        }
+        System.arraycopy(cells, c, cells, c + 1, count - c);
+        cells[c] = cell;
+        rowCellCounts[r] = count + 1;
+
+        return cell;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルの型を返します。
+     * @param cell セルの番号
+     * @return セルの型（T_ で始まる定数）
+     */
+    byte getType(int cell) {
+
+        return cellTypes[cell];
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルの値が整数であれば、その値を返します。
+     * @param cell セルの番号
+     * @return 整数の値。整数でなければ -1
+     */
+    long getLong(int cell) {
+
+        return valueKinds[cell] == V_LONG ? values[cell] : -1;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルに整数の値を記入します。
+     * @param cell セルの番号
+     * @param type セルの型
+     * @param value 値
+     */
+    void setLong(int cell, byte type, long value) {
+
+        clearLocal(cell);
+        cellTypes[cell] = type;
+        valueKinds[cell] = V_LONG;
+        values[cell] = value;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルに値の要素（v）の内容を記入します。
+     * @param cell セルの番号
+     * @param type セルの型
+     * @param value 値（ASCII 文字。エスケープは不要なもの）
+     * @param length 値の長さ
+     */
+    void setText(int cell, byte type, byte[] value, int length) {
+
+        clearLocal(cell);
+        cellTypes[cell] = type;
+        valueKinds[cell] = V_TEXT;
+        values[cell] = length == 0 ? 0L : append(value, 0, length);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルに、共有文字列を使わずに文字列を記入します（t="inlineStr"）。
+     * @param cell セルの番号
+     * @param value 値
+     */
+    void setInlineString(int cell, String value) {
+
+        byte[] escaped = XmlWriter.escape(value);
+
+        clearLocal(cell);
+        cellTypes[cell] = T_INLINE;
+        valueKinds[cell] = value.equals(value.strip()) ? V_INLINE : V_INLINE_PRESERVE;
+        values[cell] = escaped.length == 0 ? 0L : append(escaped, 0, escaped.length);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * セルに、シート単位の文字列表のインデックスを共有文字列として記入します。
+     * インデックスは {@link #remap(int[])} で共有文字列のものに置き換えます。
+     * @param cell セルの番号
+     * @param local シート単位の文字列表のインデックス
+     */
+    void setLocalString(int cell, int local) {
+
+        setLong(cell, T_SHARED, local);
+
+        if(locals == null) {
+            locals = new int[Math.max(64, cellColumns.length)];
+            Arrays.fill(locals, -1);
+        } else if(cell >= locals.length) {
+            int length = locals.length;
+            locals = Arrays.copyOf(locals, Math.max(length * 2, cell + 1));
+            Arrays.fill(locals, length, locals.length, -1);
+        }
+
+        locals[cell] = local;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * シート単位の文字列表のインデックスを記入したセルを、共有文字列のインデックスに置き換えます。
+     * 後から別の値で上書きされたセルは対象外です。
+     * @param indexes シート単位のインデックスから共有文字列のインデックスへの対応表
+     */
+    void remap(int[] indexes) {
+
+        if(locals == null) {
+            return;
+        }
+
+        for(int cell = 0; cell < cellCount && cell < locals.length; cell++) {
+            if(locals[cell] >= 0) {
+                values[cell] = indexes[locals[cell]];
+            }
+        }
+
+        locals = null;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void clearLocal(int cell) {
+
+        if(locals != null && cell < locals.length) {
+            locals[cell] = -1;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 計画した行の挿入をまとめて行います。挿入位置の行をひな形として複製し、後続の行の行番号を付け替えます。
+     * @param plan 行の挿入の計画
+     */
+    void insertRows(RowInsertionPlan plan) {
+
+        insertRows(plan, Collections.emptyMap());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 計画した行の挿入をまとめて行います。記入済みの行が渡された挿入位置では、ひな形の行と複製の代わりにその行を置きます。
+     * @param plan 行の挿入の計画
+     * @param blocks テンプレート上の挿入位置ごとの、{@link #detachRows(int)} で取り外した記入済みの行
+     */
+    void insertRows(RowInsertionPlan plan, Map<Integer, RowBlock> blocks) {
+
+        if( ! present || plan.isEmpty()) {
+            return;
+        }
+
+        // ひな形となる行を付け替えの前に求めておく
+        Map<Integer, Integer> insertions = plan.getInsertions();
+        int[] froms = new int[insertions.size()];
+        int[] counts = new int[insertions.size()];
+        int[] sources = new int[insertions.size()];
+        RowBlock[] bound = new RowBlock[insertions.size()];
+        int added = 0;
+        int k = 0;
+
+        for(Map.Entry<Integer, Integer> e : insertions.entrySet()) {
+            froms[k] = plan.map(e.getKey());
+            counts[k] = e.getValue();
+            sources[k] = findRow(e.getKey());
+            bound[k] = blocks.get(e.getKey());
+            added += sources[k] >= 0 ? counts[k] - 1 : counts[k];
+            k++;
+        }
+
+        // 既存の行を挿入後の行番号に付け替える（順番は変わらない）
+        for(int i = 0; i < rowCount; i++) {
+            rowNumbers[i] = plan.map(rowNumbers[i]);
+        }
+
+        int[] oldNumbers = rowNumbers;
+        long[] oldAttributes = rowAttributes;
+        int[][] oldCells = rowCells;
+        int[] oldCounts = rowCellCounts;
+        int oldCount = rowCount;
+
+        int capacity = Math.max(16, oldCount + added);
+        rowNumbers = new int[capacity];
+        rowAttributes = new long[capacity];
+        rowCells = new int[capacity][];
+        rowCellCounts = new int[capacity];
+        rowCount = 0;
+
+        int i = 0;
+
+        for(k = 0; k < froms.length; k++) {
+            while(i < oldCount && oldNumbers[i] < froms[k]) {
+                putRow(oldNumbers[i], oldAttributes[i], oldCells[i], oldCounts[i]);
+                i++;
+            }
+
+            int source = sources[k];
+            RowBlock block = bound[k];
+            int n = 0;
+
+            if(block != null) {
+                // 記入済みの行を置き、ひな形の行は使わない
+                for(; n < block.count; n++) {
+                    putRow(froms[k] + n, block.attributes[n], block.cells[n], block.cellCounts[n]);
+                }
+                if(source >= 0) {
+                    i++;
+                }
+            } else if(source >= 0) {
+                putRow(oldNumbers[i], oldAttributes[i], oldCells[i], oldCounts[i]);
+                i++;
+                n = 1;
+            }
+
+            for(; n < counts[k]; n++) {
+                if(source < 0) {
+                    putRow(froms[k] + n, 0L, new int[4], 0);
+                } else {
+                    int[] cells = new int[Math.max(4, oldCounts[source])];
+                    for(int c = 0; c < oldCounts[source]; c++) {
+                        cells[c] = copyCell(oldCells[source][c]);
+                    }
+                    putRow(froms[k] + n, oldAttributes[source], cells, oldCounts[source]);
+                }
+            }
+        }
+
+        while(i < oldCount) {
+            putRow(oldNumbers[i], oldAttributes[i], oldCells[i], oldCounts[i]);
+            i++;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 既存の全ての行の後ろに、指定した行を複製した行を追加し、その行番号を返します。
+     * 要素の数が分からない表領域の行を、挿入する前に 1 行ずつ記入するために使います。
+     * 追加した行は {@link #detachRows(int)} で取り外してから {@link #insertRows(RowInsertionPlan, Map)} に渡します。
+     * @param source ひな形とする行の行番号
+     * @return 追加した行の行番号
+     */
+    int appendRow(int source) {
+
+        // ひな形の行より後ろに置き、ひな形の行を探すときに追加した行と取り違えないようにする
+        int number = Math.max(rowCount > 0 ? rowNumbers[rowCount - 1] : 0, source) + 1;
+
+        if( ! present) {
+            return number;
+        }
+
+        int r = findRow(source);
+
+        if(r < 0) {
+            putRow(number, 0L, new int[4], 0);
+        } else {
+            int count = rowCellCounts[r];
+            int[] cells = new int[Math.max(4, count)];
+            for(int c = 0; c < count; c++) {
+                cells[c] = copyCell(rowCells[r][c]);
+            }
+            putRow(number, rowAttributes[r], cells, count);
+        }
+
+        return number;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link #detachRows(int)} で取り外した行を、既存の全ての行の後ろに戻し、最初の行の行番号を返します。
+     * 同じ位置に挿入する別の表領域を、同じ行に重ねて記入するために使います。
+     * @param block 取り外した行
+     * @param source ひな形とする行の行番号
+     * @return 戻した最初の行の行番号
+     */
+    int attachRows(RowBlock block, int source) {
+
+        int number = Math.max(rowCount > 0 ? rowNumbers[rowCount - 1] : 0, source) + 1;
+
+        if(present) {
+            growRows(rowCount + block.count);
+            for(int n = 0; n < block.count; n++) {
+                putRow(number + n, block.attributes[n], block.cells[n], block.cellCounts[n]);
+            }
+        }
+
+        return number;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号以降の行を取り外して返します。セルはこのモデルに残るので、同じモデルの挿入にだけ使えます。
+     * @param from 取り外す最初の行番号
+     * @return 取り外した行
+     */
+    RowBlock detachRows(int from) {
+
+        int r = findRow(from);
+        if(r < 0) {
+            r = -r - 1;
+        }
+
+        RowBlock block = new RowBlock(
+            Arrays.copyOfRange(rowAttributes, r, rowCount),
+            Arrays.copyOfRange(rowCells, r, rowCount),
+            Arrays.copyOfRange(rowCellCounts, r, rowCount));
+
+        Arrays.fill(rowCells, r, rowCount, null);
+        rowCount = r;
+
+        return block;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートの XML をバイト配列として返します。
+     * @return ワークシートの XML
+     */
+    byte[] toByteArray() {
+
+        XmlWriter writer = XmlWriter.acquire();
+
+        try {
+            write(writer);
+            return writer.toByteArray();
+        } finally {
+            writer.release();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートの XML を書き出します。
+     * @param writer 書き込み先
+     */
+    void write(XmlWriter writer) {
+
+        if( ! present) {
+            writer.write(buffer, 0, templateSize);
+            return;
+        }
+
+        writer.write(buffer, 0, start);
+        writer.write(tags.sheetDataStart);
+        write(writer, tagAttributes);
+
+        if(rowCount == 0 && empty) {
+            writer.write(EMPTY_END);
+        } else {
+            writer.write('>');
+            for(int r = 0; r < rowCount; r++) {
+                writeRow(r, writer);
+            }
+            writer.write(tags.sheetDataEnd);
+        }
+
+        writer.write(buffer, end, templateSize - end);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeRow(int r, XmlWriter writer) {
+
+        writer.write(tags.rowStart);
+        writer.writeLong(rowNumbers[r]);
+        writer.write('"');
+        write(writer, rowAttributes[r]);
+
+        int count = rowCellCounts[r];
+
+        if(count == 0) {
+            writer.write(EMPTY_END);
+            return;
+        }
+
+        writer.write('>');
+
+        int[] cells = rowCells[r];
+        for(int c = 0; c < count; c++) {
+            writeCell(rowNumbers[r], cells[c], writer);
+        }
+
+        writer.write(tags.rowEnd);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeCell(int row, int cell, XmlWriter writer) {
+
+        writer.write(tags.cellStart);
+        writer.writeReference(row, cellColumns[cell]);
+        writer.write('"');
+
+        if(cellStyles[cell] >= 0) {
+            writer.write(S);
+            writer.writeLong(cellStyles[cell]);
+            writer.write('"');
+        }
+
+        if(cellTypes[cell] != T_NONE) {
+            writer.write(TYPE_ATTRIBUTES[cellTypes[cell]]);
+        }
+
+        int extra = cellExtras[cell];
+        long children = 0L;
+        int split = 0;
+
+        if(extra != 0) {
+            write(writer, extraAttributes[extra]);
+            children = extraChildren[extra];
+            split = extraSplits[extra];
+        }
+
+        byte kind = valueKinds[cell];
+
+        if(kind == V_NONE && children == 0L) {
+            writer.write(EMPTY_END);
+            return;
+        }
+
+        writer.write('>');
+        writer.write(buffer, offset(children), split);
+        writeValue(cell, kind, writer);
+        writer.write(buffer, offset(children) + split, length(children) - split);
+        writer.write(tags.cellEnd);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeValue(int cell, byte kind, XmlWriter writer) {
+
+        switch(kind) {
+            case V_RAW:
+                write(writer, values[cell]);
+                break;
+
+            case V_TEXT:
+                writer.write(tags.valueStart);
+                write(writer, values[cell]);
+                writer.write(tags.valueEnd);
+                break;
+
+            case V_LONG:
+                writer.write(tags.valueStart);
+                writer.writeLong(values[cell]);
+                writer.write(tags.valueEnd);
+                break;
+
+            case V_INLINE:
+            case V_INLINE_PRESERVE:
+                writer.write(kind == V_INLINE ? tags.inlineStart : tags.inlinePreserveStart);
+                write(writer, values[cell]);
+                writer.write(tags.inlineEnd);
+                break;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void write(XmlWriter writer, long slice) {
+
+        writer.write(buffer, offset(slice), length(slice));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private int findRow(int row) {
+
+        int low = 0;
+        int high = rowCount - 1;
+
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int n = rowNumbers[mid];
+            if(n < row) {
+                low = mid + 1;
+            } else if(n > row) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private int findCell(int[] cells, int count, int column) {
+
+        int low = 0;
+        int high = count - 1;
+
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int n = cellColumns[cells[mid]];
+            if(n < column) {
+                low = mid + 1;
+            } else if(n > column) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+
+        return -(low + 1);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void growRows(int capacity) {
+
+        if(capacity > rowNumbers.length) {
+            capacity = Math.max(capacity, rowNumbers.length * 2);
+            rowNumbers = Arrays.copyOf(rowNumbers, capacity);
+            rowAttributes = Arrays.copyOf(rowAttributes, capacity);
+            rowCells = Arrays.copyOf(rowCells, capacity);
+            rowCellCounts = Arrays.copyOf(rowCellCounts, capacity);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void insertRow(int index, int number, long attributes, int[] cells, int count) {
+
+        growRows(rowCount + 1);
+
+        int n = rowCount - index;
+        System.arraycopy(rowNumbers, index, rowNumbers, index + 1, n);
+        System.arraycopy(rowAttributes, index, rowAttributes, index + 1, n);
+        System.arraycopy(rowCells, index, rowCells, index + 1, n);
+        System.arraycopy(rowCellCounts, index, rowCellCounts, index + 1, n);
+
+        rowNumbers[index] = number;
+        rowAttributes[index] = attributes;
+        rowCells[index] = cells;
+        rowCellCounts[index] = count;
+        rowCount++;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void putRow(int number, long attributes, int[] cells, int count) {
+
+        insertRow(rowCount, number, attributes, cells, count);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private int newCell(int column, int style, byte type, byte kind, long value, int extra) {
+
+        if(cellCount == cellColumns.length) {
+            int capacity = cellCount * 2;
+            cellColumns = Arrays.copyOf(cellColumns, capacity);
+            cellStyles = Arrays.copyOf(cellStyles, capacity);
+            cellTypes = Arrays.copyOf(cellTypes, capacity);
+            valueKinds = Arrays.copyOf(valueKinds, capacity);
+            values = Arrays.copyOf(values, capacity);
+            cellExtras = Arrays.copyOf(cellExtras, capacity);
+        }
+
+        int cell = cellCount++;
+        cellColumns[cell] = column;
+        cellStyles[cell] = style;
+        cellTypes[cell] = type;
+        valueKinds[cell] = kind;
+        values[cell] = value;
+        cellExtras[cell] = extra;
+        return cell;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private int copyCell(int cell) {
+
+        // 区間と付加情報は書き換えられないので共有する
+        int copy = newCell(cellColumns[cell], cellStyles[cell], cellTypes[cell], valueKinds[cell], values[cell], cellExtras[cell]);
+
+        if(locals != null && cell < locals.length && locals[cell] >= 0) {
+            setLocalString(copy, locals[cell]);
+        }
+
+        return copy;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private int newExtra(long attributes, long children, int split) {
+
+        if(extraCount == extraAttributes.length) {
+            int capacity = extraCount * 2;
+            extraAttributes = Arrays.copyOf(extraAttributes, capacity);
+            extraChildren = Arrays.copyOf(extraChildren, capacity);
+            extraSplits = Arrays.copyOf(extraSplits, capacity);
+        }
+
+        int extra = extraCount++;
+        extraAttributes[extra] = attributes;
+        extraChildren[extra] = children;
+        extraSplits[extra] = split;
+        return extra;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private long append(byte[] bytes, int offset, int length) {
+
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return slice(size - length, length);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void ensure(int length) {
+
+        // バイト列は複製元のモデルと共有しているので、最初の追記で複製する
+        if(shared || buffer.length - size < length) {
+            buffer = Arrays.copyOf(buffer, Math.max(shared ? size : buffer.length * 2, size + length + 1024));
+            shared = false;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static long slice(int offset, int length) {
+
+        return ((long)offset << 32) | length;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int offset(long slice) {
+
+        return (int)(slice >>> 32);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static int length(long slice) {
+
+        return (int)slice;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * モデルから取り外した、行番号を持たない記入済みの行です。セルの番号は取り外し元のモデルのものです。
+     */
+    static final class RowBlock {
+
+        final int count;
+        final long[] attributes;
+        final int[][] cells;
+        final int[] cellCounts;
+
+        //--------------------------------------------------------------------------------------------
+        RowBlock(long[] attributes, int[][] cells, int[] cellCounts) {
+
+            this.count = cellCounts.length;
+            this.attributes = attributes;
+            this.cells = cells;
+            this.cellCounts = cellCounts;
+
+        }
+        //--------------------------------------------------------------------------------------------
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * sheetData の中を読み進め、行とセルをモデルに追加します。値以外の部分はバイト列の区間として保持します。
+     */
+    private static final class Parser {
+
+        static final byte[] SHEET_DATA = "sheetData".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] ROW = "row".getBytes(StandardCharsets.US_ASCII);
+        static final byte[] IS = "is".getBytes(StandardCharsets.US_ASCII);
+
+        private final SheetModel model;
+        private final byte[] b;
+        private int p;
+
+        // 直前に読んだ開始タグ
+        private int nameStart;
+        private int nameEnd;
+        private int localStart;
+        private int tagEnd;
+        private boolean emptyTag;
+
+        // 直前に読んだ開始タグの属性（名前の開始・終了、値の開始・終了）
+        private int attributeCount;
+        private int[] attributes = new int[32];
+
+        //--------------------------------------------------------------------------------------------
+        Parser(SheetModel model, byte[] bytes) {
+
+            this.model = model;
+            this.b = bytes;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        void parse() {
+
+            // sheetData の開始タグを探す
+            while(true) {
+                int kind = next();
+                if(kind < 0) {
+                    return;
+                }
+                if(kind == START && is(SHEET_DATA)) {
+                    break;
+                }
+            }
+
+            model.present = true;
+            model.empty = emptyTag;
+            model.tags = Tags.of(new String(b, nameStart, localStart - nameStart, StandardCharsets.UTF_8));
+            model.start = nameStart - 1;
+            model.tagAttributes = slice(nameEnd, (emptyTag ? tagEnd - 1 : tagEnd) - nameEnd);
+
+            if(emptyTag) {
+                model.end = tagEnd + 1;
+                return;
+            }
+
+            int row = 0;
+
+            while(true) {
+                int kind = next();
+
+                if(kind < 0) {
+                    throw new IllegalArgumentException("sheetData is not closed.");
+                }
+                if(kind == END) {
+                    model.end = tagEnd + 1;
+                    return;
+                }
+                if(kind != START) {
+                    continue;
+                }
+                if( ! is(ROW)) {
+                    // 行以外の要素は保持しない
+                    skip();
+                    continue;
+                }
+
+                row = parseRow(row);
+            }
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private int parseRow(int previous) {
+
+            int number = previous + 1;
+
+            for(int i = 0; i < attributeCount; i++) {
+                if(isAttribute(i, "r")) {
+                    number = parseInt(i);
+                }
+            }
+
+            if(model.findRow(number) >= 0) {
+                throw new IllegalArgumentException("Duplicate row: " + number);
+            }
+
+            long attributes = keptAttributes("r", null, null);
+            int[] cells = new int[4];
+            int count = 0;
+
+            if( ! emptyTag) {
+                int column = 0;
+
+                while(true) {
+                    int kind = next();
+
+                    if(kind < 0) {
+                        throw new IllegalArgumentException("row is not closed.");
+                    }
+                    if(kind == END) {
+                        break;
+                    }
+                    if(kind != START) {
+                        continue;
+                    }
+                    if(b[localStart] != 'c' || nameEnd - localStart != 1) {
+                        skip();
+                        continue;
+                    }
+
+                    int cell = parseCell(column);
+                    column = model.cellColumns[cell];
+
+                    // 列の順でなければ、列の順の位置に入れる
+                    int c = model.findCell(cells, count, column);
+                    if(c >= 0) {
+                        throw new IllegalArgumentException("Duplicate cell in row " + number);
+                    }
+                    c = -c - 1;
+                    if(count == cells.length) {
+                        cells = Arrays.copyOf(cells, count * 2);
+                    }
+                    System.arraycopy(cells, c, cells, c + 1, count - c);
+                    cells[c] = cell;
+                    count++;
+                }
+            }
+
+            int index = model.findRow(number);
+            model.insertRow(-index - 1, number, attributes, cells, count);
+
+            return number;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private int parseCell(int previous) {
+
+            int column = previous + 1;
+            int style = -1;
+            byte type = T_NONE;
+
+            for(int i = 0; i < attributeCount; i++) {
+                if(isAttribute(i, "r")) {
+                    column = parseColumn(i);
+                } else if(isAttribute(i, "s")) {
+                    style = parseInt(i);
+                } else if(isAttribute(i, "t")) {
+                    type = parseType(i);
+                }
+            }
+
+            long attributes = keptAttributes("r", "s", "t");
+            byte kind = V_NONE;
+            long value = 0L;
+
+            // 値以外の子要素の区間と、値の要素があった位置
+            int childrenStart = -1;
+            int childrenEnd = -1;
+            int split = -1;
+            ByteArrayOutputStream copied = null;
+
+            if( ! emptyTag) {
+                while(true) {
+                    int k = next();
+
+                    if(k < 0) {
+                        throw new IllegalArgumentException("c is not closed.");
+                    }
+                    if(k == END) {
+                        break;
+                    }
+                    if(k != START) {
+                        continue;
+                    }
+
+                    int tagStart = nameStart - 1;
+                    boolean v = nameEnd - localStart == 1 && b[localStart] == 'v';
+                    boolean is = is(IS);
+                    skip();
+
+                    if((v || is) && kind == V_NONE) {
+                        kind = V_RAW;
+                        value = slice(tagStart, p - tagStart);
+                        split = childrenEnd < 0 ? 0 : childrenEnd - childrenStart + (copied != null ? copied.size() : 0);
+                        continue;
+                    }
+                    if(v || is) {
+                        continue;
+                    }
+
+                    // 値の要素を挟んで離れた子要素は、まとめて複製する
+                    if(childrenStart < 0) {
+                        childrenStart = tagStart;
+                    } else if(split >= 0 && childrenEnd < tagStart && ! blank(childrenEnd, tagStart)) {
+                        if(copied == null) {
+                            copied = new ByteArrayOutputStream();
+                        }
+                        copied.write(b, childrenStart, childrenEnd - childrenStart);
+                        childrenStart = tagStart;
+                    }
+                    childrenEnd = p;
+                }
+            }
+
+            int extra = 0;
+            long children = 0L;
+
+            if(childrenStart >= 0) {
+                if(copied != null) {
+                    copied.write(b, childrenStart, childrenEnd - childrenStart);
+                    byte[] bytes = copied.toByteArray();
+                    children = model.append(bytes, 0, bytes.length);
+                } else {
+                    children = slice(childrenStart, childrenEnd - childrenStart);
+                }
+            }
+
+            if(children != 0L || attributes != 0L) {
+                extra = model.newExtra(attributes, children, split < 0 ? length(children) : split);
+            }
+
+            return model.newCell(column, style, type, kind, value, extra);
+
+        }
+        //--------------------------------------------------------------------------------------------
+        /*
+         * 指定した名前以外の属性の区間を、前の空白を含めて返します。
+         * 除く属性が残す属性の間にあれば、残す属性を複製して追記します。
+         */
+        private long keptAttributes(String a, String c, String d) {
+
+            int first = -1;
+            int last = -1;
+            boolean contiguous = true;
+
+            for(int i = 0; i < attributeCount; i++) {
+                if( ! excluded(i, a, c, d)) {
+                    if(last >= 0 && last != i - 1) {
+                        contiguous = false;
+                    }
+                    if(first < 0) {
+                        first = i;
+                    }
+                    last = i;
+                }
+            }
+
+            if(first < 0) {
+                return 0L;
+            }
+
+            if(contiguous) {
+                int from = attributeStart(first);
+                return slice(from, attributes[last * 4 + 3] + 1 - from);
+            }
+
+            ByteArrayOutputStream copied = new ByteArrayOutputStream();
+            for(int i = first; i <= last; i++) {
+                if( ! excluded(i, a, c, d)) {
+                    copied.write(' ');
+                    copied.write(b, attributes[i * 4], attributes[i * 4 + 3] + 1 - attributes[i * 4]);
+                }
+            }
+            byte[] bytes = copied.toByteArray();
+            return model.append(bytes, 0, bytes.length);
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private boolean excluded(int i, String a, String c, String d) {
+
+            return isAttribute(i, a) || (c != null && isAttribute(i, c)) || (d != null && isAttribute(i, d));
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private int attributeStart(int i) {
+
+            int from = attributes[i * 4];
+            while(from > 0 && isSpace(b[from - 1])) {
+                from--;
+            }
+            return from;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private boolean isAttribute(int i, String name) {
+
+            int from = attributes[i * 4];
+            int to = attributes[i * 4 + 1];
+
+            if(to - from != name.length()) {
+                return false;
+            }
+            for(int j = 0; j < name.length(); j++) {
+                if(b[from + j] != name.charAt(j)) {
+                    return false;
+                }
+            }
+            return true;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private int parseInt(int i) {
+
+            int value = 0;
+            for(int j = attributes[i * 4 + 2]; j < attributes[i * 4 + 3]; j++) {
+                if(b[j] < '0' || b[j] > '9') {
+                    throw new IllegalArgumentException("Invalid number in attribute.");
+                }
+                value = value * 10 + (b[j] - '0');
+            }
+            return value;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private int parseColumn(int i) {
+
+            int column = 0;
+            for(int j = attributes[i * 4 + 2]; j < attributes[i * 4 + 3]; j++) {
+                int c = b[j] | 0x20;
+                if(c < 'a' || c > 'z') {
+                    break;
+                }
+                column = column * 26 + (c - 'a' + 1);
+            }
+            if(column < 1 || column > CellReference.MAX_COLUMN) {
+                throw new IllegalArgumentException("Invalid cell reference.");
+            }
+            return column;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private byte parseType(int i) {
+
+            int from = attributes[i * 4 + 2];
+            int to = attributes[i * 4 + 3];
+
+            for(byte t = 1; t < TYPES.length; t++) {
+                String name = TYPES[t];
+                if(to - from == name.length()) {
+                    boolean match = true;
+                    for(int j = 0; j < name.length() && match; j++) {
+                        match = b[from + j] == name.charAt(j);
+                    }
+                    if(match) {
+                        return t;
+                    }
+                }
+            }
+
+            throw new IllegalArgumentException("Unknown cell type: " + new String(b, from, to - from, StandardCharsets.UTF_8));
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private boolean is(byte[] local) {
+
+            if(nameEnd - localStart != local.length) {
+                return false;
+            }
+            for(int i = 0; i < local.length; i++) {
+                if(b[localStart + i] != local[i]) {
+                    return false;
+                }
+            }
+            return true;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private boolean blank(int from, int to) {
+
+            for(int i = from; i < to; i++) {
+                if( ! isSpace(b[i])) {
+                    return false;
+                }
+            }
+            return true;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private static boolean isSpace(byte c) {
+
+            return c == ' ' || c == '\t' || c == '\r' || c == '\n';
+
+        }
+        //--------------------------------------------------------------------------------------------
+        static final int START = 1;
+        static final int END = 2;
+        static final int OTHER = 3;
+
+        /*
+         * 次のタグまで読み進めます。開始タグ・終了タグ・それ以外（文字データ・コメントなど）のいずれかを返し、
+         * 終端に達した場合は -1 を返します。
+         */
+        private int next() {
+
+            if(p >= b.length) {
+                return -1;
+            }
+
+            if(b[p] != '<') {
+                while(p < b.length && b[p] != '<') {
+                    p++;
+                }
+                return OTHER;
+            }
+
+            if(startsWith("<!--")) {
+                p = indexOf("-->", p + 4) + 3;
+                return OTHER;
+            }
+            if(startsWith("<![CDATA[")) {
+                p = indexOf("]]>", p + 9) + 3;
+                return OTHER;
+            }
+            if(startsWith("<?") || startsWith("<!")) {
+                p = indexOf(">", p + 2) + 1;
+                return OTHER;
+            }
+
+            boolean end = p + 1 < b.length && b[p + 1] == '/';
+            nameStart = end ? p + 2 : p + 1;
+            nameEnd = nameStart;
+            localStart = nameStart;
+
+            while(nameEnd < b.length && ! isSpace(b[nameEnd]) && b[nameEnd] != '>' && b[nameEnd] != '/') {
+                if(b[nameEnd] == ':') {
+                    localStart = nameEnd + 1;
+                }
+                nameEnd++;
+            }
+
+            if(end) {
+                tagEnd = indexOf(">", nameEnd);
+                p = tagEnd + 1;
+                return END;
+            }
+
+            // 属性を読む
+            attributeCount = 0;
+            int i = nameEnd;
+
+            while(true) {
+                while(i < b.length && isSpace(b[i])) {
+                    i++;
+                }
+                if(i >= b.length) {
+                    throw new IllegalArgumentException("Tag is not closed.");
+                }
+                if(b[i] == '>') {
+                    emptyTag = false;
+                    break;
+                }
+                if(b[i] == '/') {
+                    emptyTag = true;
+                    i++;
+                    break;
+                }
+
+                int from = i;
+                while(i < b.length && b[i] != '=' && ! isSpace(b[i])) {
+                    i++;
+                }
+                int to = i;
+                while(i < b.length && b[i] != '"' && b[i] != '\'') {
+                    i++;
+                }
+                if(i >= b.length) {
+                    throw new IllegalArgumentException("Attribute is not quoted.");
+                }
+                byte quote = b[i++];
+                int valueStart = i;
+                while(i < b.length && b[i] != quote) {
+                    i++;
+                }
+
+                if(attributeCount * 4 == attributes.length) {
+                    attributes = Arrays.copyOf(attributes, attributes.length * 2);
+                }
+                attributes[attributeCount * 4] = from;
+                attributes[attributeCount * 4 + 1] = to;
+                attributes[attributeCount * 4 + 2] = valueStart;
+                attributes[attributeCount * 4 + 3] = i;
+                attributeCount++;
+                i++;
+            }
+
+            tagEnd = i;
+            p = tagEnd + 1;
+            return START;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        /*
+         * 直前に読んだ開始タグの要素の終わりまで読み飛ばします。
+         */
+        private void skip() {
+
+            if(emptyTag) {
+                return;
+            }
+
+            int depth = 1;
+
+            while(depth > 0) {
+                int kind = next();
+                if(kind < 0) {
+                    throw new IllegalArgumentException("Element is not closed.");
+                }
+                if(kind == START && ! emptyTag) {
+                    depth++;
+                } else if(kind == END) {
+                    depth--;
+                }
+            }
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private boolean startsWith(String s) {
+
+            if(p + s.length() > b.length) {
+                return false;
+            }
+            for(int i = 0; i < s.length(); i++) {
+                if(b[p + i] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+
+        }
+        //--------------------------------------------------------------------------------------------
+        private int indexOf(String s, int from) {
+
+            for(int i = from; i + s.length() <= b.length; i++) {
+                int j = 0;
+                while(j < s.length() && b[i + j] == s.charAt(j)) {
+                    j++;
+                }
+                if(j == s.length()) {
+                    return i;
+                }
+            }
+
+            throw new IllegalArgumentException("Unexpected end of document.");
+
+        }
+        //--------------------------------------------------------------------------------------------
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * sheetData の中で書き出すタグを、名前空間の接頭辞ごとに事前にバイト列にしたものです。
+     */
+    private static final class Tags {
+
+        // 接頭辞のない既定の名前空間のもの
+        private static final Tags DEFAULT = new Tags("");
+
+        final byte[] sheetDataStart;
+        final byte[] sheetDataEnd;
+        final byte[] rowStart;
+        final byte[] rowEnd;
+        final byte[] cellStart;
+        final byte[] cellEnd;
+        final byte[] valueStart;
+        final byte[] valueEnd;
+        final byte[] inlineStart;
+        final byte[] inlinePreserveStart;
+        final byte[] inlineEnd;
+
+        private Tags(String p) {
+            sheetDataStart = bytes("<" + p + "sheetData");
+            sheetDataEnd = bytes("</" + p + "sheetData>");
+            rowStart = bytes("<" + p + "row r=\"");
+            rowEnd = bytes("</" + p + "row>");
+            cellStart = bytes("<" + p + "c r=\"");
+            cellEnd = bytes("</" + p + "c>");
+            valueStart = bytes("<" + p + "v>");
+            valueEnd = bytes("</" + p + "v>");
+            inlineStart = bytes("<" + p + "is><" + p + "t>");
+            inlinePreserveStart = bytes("<" + p + "is><" + p + "t xml:space=\"preserve\">");
+            inlineEnd = bytes("</" + p + "t></" + p + "is>");
+        }
+
+        static Tags of(String prefix) {
+            return prefix.isEmpty() ? DEFAULT : new Tags(prefix);
+        }
+
+        private static byte[] bytes(String s) {
+            return s.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
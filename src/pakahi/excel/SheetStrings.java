@@ -0,0 +1,50 @@
+package pakahi.excel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 1 つのワークシートで記入された文字列を、記入された順に保持する表です。
+ * シートを並列に処理するときに共有文字列の代わりに使用し、
+ * 全てのシートの記入後にシートの順番で {@link SharedStrings#merge(SheetStrings)} により統合します。
+ */
+final class SheetStrings {
+
+    private final HashMap<String, Integer> indexes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字列を追加し、シート内でのインデックスを返します。
+     * @param s 追加する文字列
+     * @return シート内でのインデックス
+     */
+    int add(String s) {
+
+        Integer index = indexes.get(s);
+
+        if(index != null) {
+            return index;
+        }
+
+        indexes.put(s, strings.size());
+        strings.add(s);
+
+        return strings.size() - 1;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    List<String> getStrings() {
+
+        return strings;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
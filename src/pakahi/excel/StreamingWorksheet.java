@@ -0,0 +1,864 @@
+package pakahi.excel;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.*;
+
+import static javax.xml.stream.XMLStreamConstants.*;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ワークシート用の XML ファイル（/xl/worksheets/sheetN.xml）を StAX で先頭から順に読み、{@link XmlWriter} で書き出します。
+ * 記入する値と挿入する行はテンプレートを読み進めながら差し込まれ、出力は一定の大きさのバッファを通して
+ * パーツの出力ストリーム（{@link IPartStore#openOutput(String)}）に書き込まれます。
+ * そのため作業用のメモリは表の行数によらず 1 行分とバッファに収まります。
+ * ただし書き出したパーツをメモリ上に保持する保持場所では、パーツ全体が 1 つ保持されます。
+ */
+public class StreamingWorksheet implements IWorksheet {
+
+    static final byte[] DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\r\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] XMLNS = " xmlns".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] R = " r=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] VALUE_START = "=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EMPTY_END = "/>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_START = "</".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PRESERVE = " xml:space=\"preserve\"".getBytes(StandardCharsets.US_ASCII);
+
+    IPartStore parts;
+    String name;
+    SharedStrings sharedStrings;
+    String uri;
+
+    // テンプレート上の行番号・列番号ごとの記入値
+    TreeMap<Integer, TreeMap<Integer, Cell>> cells = new TreeMap<>();
+
+    // テンプレート上の行番号ごとの表領域
+    TreeMap<Integer, List<Table>> tables = new TreeMap<>();
+
+    // 表領域の書き出し中の行
+    TreeMap<Integer, Cell> current;
+    int currentRow;
+
+    // 行の挿入によるテンプレートからのずれ
+    int offset;
+
+    CellValueEncoder encoder = new CellValueEncoder();
+
+    // 文字列を全て共有文字列を使わずに記入する
+    boolean inlineStrings;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシート用の XML ファイルを逐次処理するクラスのコンストラクタです。
+     * @param parts SpreadsheetML 構造の各パーツ
+     * @param sheetName シート名
+     * @param sharedStrings 共有文字列オブジェクト
+     */
+    public StreamingWorksheet(IPartStore parts, String sheetName, SharedStrings sharedStrings) {
+
+        this.parts = parts;
+        this.sharedStrings = sharedStrings;
+
+        uri = new ExcelNamespaceContext().getNamespaceURI("x");
+
+        name = "xl/worksheets/" + sheetName + ".xml";
+
+        if( ! parts.contains(name)) {
+            System.out.println("Worksheet \"" + sheetName + "\" not found: " + name);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各行に要素の値を記入します。
+     * 要素の値は {@link #save()} でその行を書き出すときに読み出されます。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param items 各行に記入するデータオブジェクトのリスト
+     * @param writer 1 行分のセルを記入する処理
+     */
+    public void insertRows(String address, List<? extends IReport> items, IRowWriter writer) {
+
+        if(items.size() == 0) {
+            return;
+        }
+
+        int from = CellReference.row(Address.reference(address));
+
+        // 同じ行から始まる表領域は行を共有する
+        tables.computeIfAbsent(from, r -> new ArrayList<>()).add(new Table(from, items, writer));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各行に要素の値を記入します。要素の数は事前に分からなくても構いません。
+     * 要素は {@link #save()} でその行を書き出すときに 1 件ずつ読み出され、保持されません。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param items 各行に記入するデータオブジェクト
+     * @param writer 1 行分のセルを記入する処理
+     */
+    @Override
+    public void insertRows(String address, Iterator<? extends IReport> items, IRowWriter writer) {
+
+        int from = CellReference.row(Address.reference(address));
+
+        // 同じ行から始まる表領域は行を共有する
+        tables.computeIfAbsent(from, r -> new ArrayList<>()).add(new Table(from, items, writer));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に指定した数の行を挿入し、各行に要素の番号を指定して値を記入します。
+     * 値は {@link #save()} でその行を書き出すときに記入されます。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param count 挿入する行数（要素の数）
+     * @param writer 1 行分のセルを記入する処理
+     */
+    public void insertRows(String address, int count, IRowIndexWriter writer) {
+
+        if(count <= 0) {
+            return;
+        }
+
+        int from = CellReference.row(Address.reference(address));
+
+        // 同じ行から始まる表領域は行を共有する
+        tables.computeIfAbsent(from, r -> new ArrayList<>()).add(new Table(from, count, writer));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに文字列を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, String value) {
+
+        if(inlineStrings) {
+            setInlineString(row, column, value);
+        } else if(value == null || value.isEmpty()) {
+            setCellValueContent(row, column, new Cell("s", ""));
+        } else {
+            int p = sharedStrings.add(value);
+            setCellValueContent(row, column, new Cell("s", p));
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに真偽値を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, Boolean value) {
+
+        setCellValueContent(row, column, new Cell("b", value ? 1 : 0));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに日時を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, LocalDateTime value) {
+
+        setCellValueContent(row, column, new Cell(CellValues.getDateSerial(value) + CellValues.getTimeSerial(value)));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに日付を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, LocalDate value) {
+
+        setCellValueContent(row, column, new Cell(null, CellValues.getDateSerial(value)));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに時刻を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, LocalTime value) {
+
+        setCellValueContent(row, column, new Cell(CellValues.getTimeSerial(value)));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに int 型の数値を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, int value) {
+
+        setCellValueContent(row, column, new Cell(null, value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに long 型の整数を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, long value) {
+
+        setCellValueContent(row, column, new Cell(null, value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに byte 型の整数を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, byte value) {
+
+        setCellValueContent(row, column, new Cell(null, value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに short 型の整数を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, short value) {
+
+        setCellValueContent(row, column, new Cell(null, value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに double 型の小数を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, double value) {
+
+        setCellValueContent(row, column, new Cell(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに float 型の小数を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, float value) {
+
+        setCellValueContent(row, column, new Cell(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに BigDecimal 型の数値を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, BigDecimal value) {
+
+        setCellValueContent(row, column, new Cell(value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに UTC の日時を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, Instant value) {
+
+        setCellValueContent(row, column, new Cell(CellValues.getSerial(value)));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに、共有文字列を使わずに文字列を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setInlineString(int row, int column, String value) {
+
+        setCellValueContent(row, column, new Cell("inlineStr", value == null ? "" : value));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void setCellValueContent(int row, int column, Cell cell) {
+
+        // 表領域の書き出し中は、その行の値だけを受け付ける
+        if(current != null) {
+            if(row == currentRow) {
+                current.put(column, cell);
+            }
+            return;
+        }
+
+        cells.computeIfAbsent(row, r -> new TreeMap<>()).put(column, cell);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートを読み進めながら値と行を差し込み、ワークシートをパーツとして保存します。
+     */
+    public void save() {
+
+        byte[] bytes = parts.get(name);
+
+        if(bytes == null) {
+            return;
+        }
+
+        // 書き出した XML はバイト配列にまとめず、パーツの出力ストリームに順に書き込む
+        // 最後まで書き込めた場合だけパーツを置き換え、失敗した場合はテンプレートのパーツを残す
+        XmlWriter writer = null;
+
+        try(IPartStore.PartOutputStream output = parts.openOutput(name)) {
+            writer = XmlWriter.acquire(output);
+            write(new ByteArrayInputStream(bytes), writer);
+            writer.flush();
+            output.commit();
+
+        } catch(WorkbookException ex) {
+            throw ex;
+        } catch(Exception ex) {
+            throw new WorkbookException(name, ex);
+        } finally {
+            if(writer != null) {
+                writer.release();
+            }
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void write(InputStream input, XmlWriter writer) throws Exception {
+
+        XMLStreamReader reader = XmlFactories.inputFactory().createXMLStreamReader(input);
+
+        writer.write(DECLARATION);
+
+        boolean inSheetData = false;
+        Node pending = null;
+        offset = 0;
+
+        try {
+            while(reader.hasNext()) {
+                int event = reader.next();
+
+                // 直後に終了タグが続く要素は空要素として書き出す
+                if(pending != null) {
+                    if(event == END_ELEMENT && ( ! inSheetData || (cells.isEmpty() && tables.isEmpty()))) {
+                        writeStartElement(pending, true, 0, 0, null, writer);
+                        pending = null;
+                        inSheetData = false;
+                        continue;
+                    }
+                    writeStartElement(pending, false, 0, 0, null, writer);
+                    pending = null;
+                }
+
+                switch(event) {
+                    case START_ELEMENT:
+                        if(inSheetData && reader.getLocalName().equals("row")) {
+                            // 行は 1 行ずつ読み込んでから書き出す
+                            writeRow(capture(reader, false), writer);
+                        } else {
+                            pending = capture(reader, true);
+                            inSheetData = reader.getLocalName().equals("sheetData") && uri.equals(reader.getNamespaceURI());
+                        }
+                        break;
+
+                    case END_ELEMENT:
+                        if(inSheetData) {
+                            // テンプレートの最終行より後ろの行
+                            flush(Integer.MAX_VALUE, writer);
+                            inSheetData = false;
+                        }
+                        writeEndElement(nonNull(reader.getPrefix()), reader.getLocalName(), writer);
+                        break;
+
+                    case CHARACTERS:
+                    case SPACE:
+                        writer.writeText(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                        break;
+
+                    case CDATA:
+                        writer.writeName("<![CDATA[").writeName(reader.getText()).writeName("]]>");
+                        break;
+
+                    case COMMENT:
+                        writer.writeName("<!--").writeName(reader.getText()).writeName("-->");
+                        break;
+
+                    case PROCESSING_INSTRUCTION:
+                        writer.writeName("<?").writeName(reader.getPITarget());
+                        if(reader.getPIData() != null && ! reader.getPIData().isEmpty()) {
+                            writer.write(' ').writeName(reader.getPIData());
+                        }
+                        writer.writeName("?>");
+                        break;
+                }
+            }
+
+        } finally {
+            reader.close();
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void flush(int limit, XmlWriter writer) {
+
+        // テンプレートに存在しない行のうち、指定した行より前のものを書き出す
+        while(true) {
+            int r = Integer.MAX_VALUE;
+
+            if( ! cells.isEmpty()) {
+                r = cells.firstKey();
+            }
+            if( ! tables.isEmpty()) {
+                r = Math.min(r, tables.firstKey());
+            }
+            if(r >= limit) {
+                return;
+            }
+
+            Node row = new Node("", "row", uri);
+            row.setAttribute("r", String.valueOf(r));
+            writeRow(row, writer);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeRow(Node row, XmlWriter writer) {
+
+        int r = Integer.parseInt(row.getAttribute("r"));
+
+        // 先行する新規の行を書き出す
+        flush(r, writer);
+
+        TreeMap<Integer, Cell> values = cells.remove(r);
+        List<Table> table = tables.remove(r);
+
+        if(table == null) {
+            writeRow(row, r + offset, values, writer);
+            return;
+        }
+
+        // 表領域の要素を 1 行ずつ記入して書き出す
+        int n = 0;
+
+        while(table.stream().anyMatch(Table::hasNext)) {
+            currentRow = r + offset + n;
+            current = new TreeMap<>();
+
+            if(values != null) {
+                current.putAll(values);
+            }
+
+            try {
+                for(Table t : table) {
+                    if(t.hasNext()) {
+                        t.writeNext(this, currentRow);
+                    }
+                }
+            } catch(Exception ex) {
+                throw new WorkbookException(name + " row " + currentRow, ex);
+            }
+
+            TreeMap<Integer, Cell> v = current;
+            current = null;
+            writeRow(row, currentRow, v, writer);
+            n++;
+        }
+
+        if(n == 0) {
+            writeRow(row, r + offset, values, writer);
+        }
+
+        offset += Math.max(n, 1) - 1;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeRow(Node row, int r, TreeMap<Integer, Cell> values, XmlWriter writer) {
+
+        boolean empty = row.children.isEmpty() && (values == null || values.isEmpty());
+
+        writeStartElement(row, empty, r, 0, null, writer);
+
+        if(empty) {
+            return;
+        }
+
+        Iterator<Map.Entry<Integer, Cell>> pending = values == null ? Collections.emptyIterator() : values.entrySet().iterator();
+        Map.Entry<Integer, Cell> next = pending.hasNext() ? pending.next() : null;
+        int column = 0;
+
+        for(Object child : row.children) {
+            if( ! (child instanceof Node) || ! ((Node)child).localName.equals("c")) {
+                writeChild(child, writer);
+                continue;
+            }
+
+            Node cell = (Node)child;
+            String ref = cell.getAttribute("r");
+            column = ref == null ? column + 1 : CellReference.column(Address.reference(ref));
+
+            // 列番号の順にテンプレートにないセルを差し込む
+            while(next != null && next.getKey() < column) {
+                writeCell(null, r, next.getKey(), next.getValue(), writer);
+                next = pending.hasNext() ? pending.next() : null;
+            }
+
+            if(next != null && next.getKey() == column) {
+                writeCell(cell, r, column, next.getValue(), writer);
+                next = pending.hasNext() ? pending.next() : null;
+            } else {
+                writeCell(cell, r, column, null, writer);
+            }
+        }
+
+        while(next != null) {
+            writeCell(null, r, next.getKey(), next.getValue(), writer);
+            next = pending.hasNext() ? pending.next() : null;
+        }
+
+        writeEndElement(row, writer);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeCell(Node cell, int r, int column, Cell value, XmlWriter writer) {
+
+        if(cell == null) {
+            cell = new Node("", "c", uri);
+        }
+
+        if(value == null) {
+            // テンプレートのセルをそのまま書き出す
+            writeStartElement(cell, cell.children.isEmpty(), r, column, null, writer);
+
+            if( ! cell.children.isEmpty()) {
+                for(Object child : cell.children) {
+                    writeChild(child, writer);
+                }
+                writeEndElement(cell, writer);
+            }
+            return;
+        }
+
+        writeStartElement(cell, false, r, column, value, writer);
+
+        // 値以外の子要素（数式など）はテンプレートのまま残す
+        boolean written = false;
+
+        for(Object child : cell.children) {
+            if(child instanceof Node && (((Node)child).localName.equals("v") || ((Node)child).localName.equals("is"))) {
+                // 既存の値は最初の位置で置き換え、残りは書き出さない
+                if( ! written) {
+                    writeValue((Node)child, value, writer);
+                    written = true;
+                }
+            } else {
+                writeChild(child, writer);
+            }
+        }
+
+        if( ! written) {
+            writeValue(new Node(cell.prefix, "v", uri), value, writer);
+        }
+
+        writeEndElement(cell, writer);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeValue(Node v, Cell value, XmlWriter writer) {
+
+        if("inlineStr".equals(value.type)) {
+            writeStartTag(v.prefix, "is", writer).write('>');
+            writeStartTag(v.prefix, "t", writer);
+            if( ! value.text.equals(value.text.strip())) {
+                writer.write(PRESERVE);
+            }
+            writer.write('>');
+            writer.writeText(value.text);
+            writeEndElement(v.prefix, "t", writer);
+            writeEndElement(v.prefix, "is", writer);
+            return;
+        }
+
+        writeStartTag(v.prefix, "v", writer).write('>');
+
+        if(value.text != null) {
+            writer.writeText(value.text);
+        } else {
+            // 数値は再利用するバッファを経由して書き出す
+            if(value.integral) {
+                encoder.encode(value.number);
+            } else if(value.exact != null) {
+                encoder.encode(value.exact);
+            } else if(value.single) {
+                encoder.encode((float)value.decimal);
+            } else {
+                encoder.encode(value.decimal);
+            }
+            writer.write(encoder.getBytes(), 0, encoder.length());
+        }
+
+        writeEndElement(v.prefix, "v", writer);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void writeChild(Object child, XmlWriter writer) {
+
+        if( ! (child instanceof Node)) {
+            writer.writeText((String)child);
+            return;
+        }
+
+        Node node = (Node)child;
+
+        writeStartElement(node, node.children.isEmpty(), 0, 0, null, writer);
+
+        if( ! node.children.isEmpty()) {
+            for(Object c : node.children) {
+                writeChild(c, writer);
+            }
+            writeEndElement(node, writer);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 開始タグを書き出します。row が 0 でなければ r 属性を先頭に置き、column が 0 でなければセルのアドレスにします。
+     * 記入する値があれば、t 属性をその型に置き換えます。
+     */
+    private void writeStartElement(Node node, boolean empty, int row, int column, Cell value, XmlWriter writer) {
+
+        writeStartTag(node.prefix, node.localName, writer);
+
+        for(String[] ns : node.namespaces) {
+            writer.write(XMLNS);
+            if( ! ns[0].isEmpty()) {
+                writer.write(':').writeName(ns[0]);
+            }
+            writer.write(VALUE_START).writeAttributeValue(ns[1]).write('"');
+        }
+
+        // 行番号・セルのアドレスは書き換えて先頭に置く
+        if(row != 0) {
+            writer.write(R);
+            if(column != 0) {
+                writer.writeReference(row, column);
+            } else {
+                writer.writeLong(row);
+            }
+            writer.write('"');
+        }
+
+        for(String[] a : node.attributes) {
+            if( ! a[0].isEmpty()) {
+                writer.write(' ').writeName(a[0]).write(':').writeName(a[2]);
+            } else if( ! (row != 0 && a[2].equals("r")) && ! (value != null && a[2].equals("t"))) {
+                writer.write(' ').writeName(a[2]);
+            } else {
+                continue;
+            }
+            writer.write(VALUE_START).writeAttributeValue(a[3]).write('"');
+        }
+
+        // t 属性は記入した値の型に置き換える
+        if(value != null && value.type != null) {
+            writer.write(' ').write('t').write(VALUE_START).writeName(value.type).write('"');
+        }
+
+        if(empty) {
+            writer.write(EMPTY_END);
+        } else {
+            writer.write('>');
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static XmlWriter writeStartTag(String prefix, String localName, XmlWriter writer) {
+
+        writer.write('<');
+        if( ! prefix.isEmpty()) {
+            writer.writeName(prefix).write(':');
+        }
+        return writer.writeName(localName);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void writeEndElement(Node node, XmlWriter writer) {
+
+        writeEndElement(node.prefix, node.localName, writer);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void writeEndElement(String prefix, String localName, XmlWriter writer) {
+
+        writer.write(END_START);
+        if( ! prefix.isEmpty()) {
+            writer.writeName(prefix).write(':');
+        }
+        writer.writeName(localName).write('>');
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private Node capture(XMLStreamReader reader, boolean shallow) throws XMLStreamException {
+
+        Node node = new Node(nonNull(reader.getPrefix()), reader.getLocalName(), nonNull(reader.getNamespaceURI()));
+
+        for(int i = 0; i < reader.getNamespaceCount(); i++) {
+            node.namespaces.add(new String[] { nonNull(reader.getNamespacePrefix(i)), reader.getNamespaceURI(i) });
+        }
+
+        for(int i = 0; i < reader.getAttributeCount(); i++) {
+            node.attributes.add(new String[] {
+                nonNull(reader.getAttributePrefix(i)),
+                nonNull(reader.getAttributeNamespace(i)),
+                reader.getAttributeLocalName(i),
+                reader.getAttributeValue(i)
+            });
+        }
+
+        if(shallow) {
+            return node;
+        }
+
+        while(reader.hasNext()) {
+            switch(reader.next()) {
+                case START_ELEMENT:
+                    node.children.add(capture(reader, false));
+                    break;
+
+                case END_ELEMENT:
+                    return node;
+
+                case CHARACTERS:
+                case SPACE:
+                case CDATA:
+                    node.children.add(reader.getText());
+                    break;
+            }
+        }
+
+        return node;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static String nonNull(String s) {
+
+        return s == null ? "" : s;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 記入する値とその型です。
+     */
+    static class Cell {
+
+        String type;
+        String text;
+        long number;
+        double decimal;
+        BigDecimal exact;
+        boolean integral;
+        boolean single;
+
+        Cell(String type, String text) {
+            this.type = type;
+            this.text = text;
+        }
+
+        Cell(String type, long number) {
+            this.type = type;
+            this.number = number;
+            this.integral = true;
+        }
+
+        Cell(double decimal) {
+            this.decimal = decimal;
+        }
+
+        Cell(float decimal) {
+            this.decimal = decimal;
+            this.single = true;
+        }
+
+        Cell(BigDecimal exact) {
+            this.exact = Objects.requireNonNull(exact);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 1 行分の要素を保持する軽量なノードです。
+     */
+    static class Node {
+
+        String prefix;
+        String localName;
+        String namespaceURI;
+        List<String[]> namespaces = new ArrayList<>();
+        List<String[]> attributes = new ArrayList<>();
+        List<Object> children = new ArrayList<>();
+
+        Node(String prefix, String localName, String namespaceURI) {
+            this.prefix = prefix;
+            this.localName = localName;
+            this.namespaceURI = namespaceURI;
+        }
+
+        String getAttribute(String localName) {
+            for(String[] a : attributes) {
+                if(a[0].isEmpty() && a[2].equals(localName)) {
+                    return a[3];
+                }
+            }
+            return null;
+        }
+
+        void setAttribute(String localName, String value) {
+            for(String[] a : attributes) {
+                if(a[0].isEmpty() && a[2].equals(localName)) {
+                    a[3] = value;
+                    return;
+                }
+            }
+            attributes.add(new String[] { "", "", localName, value });
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
@@ -0,0 +1,94 @@
+package pakahi.excel;
+
+import java.util.Iterator;
+import java.util.List;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 表領域に記入する要素と、1 行分のセルを記入する処理を保持します。
+ * 要素の数が分かっている表領域は、行を挿入してから先頭の要素から 1 件ずつ記入します。
+ * 要素の数が分からない表領域は、要素を 1 件ずつ読み出して記入し、データオブジェクトは保持しません。
+ * 配列の列を記入する表領域は、データオブジェクトの代わりに要素の番号を記入する処理に渡します。
+ */
+class Table {
+
+    final int row;
+    final IRowWriter writer;
+    final IRowIndexWriter indexWriter;
+
+    private final Iterator<? extends IReport> items;
+
+    // 要素の数。事前に分からなければ -1
+    private final int size;
+
+    // 次に記入する要素の番号
+    private int index;
+
+
+    //------------------------------------------------------------------------------------------------
+    Table(int row, List<? extends IReport> items, IRowWriter writer) {
+
+        this.row = row;
+        this.items = items.iterator();
+        this.writer = writer;
+        this.indexWriter = null;
+        this.size = items.size();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    Table(int row, Iterator<? extends IReport> items, IRowWriter writer) {
+
+        this.row = row;
+        this.items = items;
+        this.writer = writer;
+        this.indexWriter = null;
+        this.size = -1;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    Table(int row, int count, IRowIndexWriter writer) {
+
+        this.row = row;
+        this.items = null;
+        this.writer = null;
+        this.indexWriter = writer;
+        this.size = count;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 要素の数を返します。事前に分からなければ -1 を返します。
+     */
+    int count() {
+
+        return size;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 記入していない要素が残っているかどうかを返します。
+     */
+    boolean hasNext() {
+
+        return items != null ? items.hasNext() : index < size;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 次の要素を指定した行に記入します。
+     */
+    void writeNext(IWorksheet worksheet, int r) throws Exception {
+
+        if(items != null) {
+            writer.write(worksheet, r, items.next());
+        } else {
+            indexWriter.write(worksheet, r, index++);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
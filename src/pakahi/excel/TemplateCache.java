@@ -0,0 +1,59 @@
+package pakahi.excel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * 読み込み済みのテンプレートをフォルダのパスごとに保持するキャッシュです。スレッドセーフです。
+ */
+public class TemplateCache {
+
+    private final ConcurrentHashMap<Path, CompiledTemplate> templates = new ConcurrentHashMap<>();
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートを返します。初回のみフォルダから読み込みます。
+     * @param template テンプレートとして使用する展開済み SpreadsheetML フォルダのパス
+     * @return 読み込み済みのテンプレート
+     * @throws UncheckedIOException フォルダが読み込めない場合
+     */
+    public CompiledTemplate get(Path template) {
+
+        return templates.computeIfAbsent(template.toAbsolutePath().normalize(), path -> {
+            try {
+                return CompiledTemplate.load(path);
+            } catch(IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * テンプレートをキャッシュから削除します。次回の {@link #get(Path)} で再読み込みされます。
+     * @param template テンプレートのパス
+     */
+    public void remove(Path template) {
+
+        templates.remove(template.toAbsolutePath().normalize());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * すべてのテンプレートをキャッシュから削除します。
+     */
+    public void clear() {
+
+        templates.clear();
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
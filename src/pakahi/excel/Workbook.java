@@ -1,26 +1,14 @@
 package pakahi.excel;
 
-import org.apache.poi.openxml4j.opc.OPCPackage;
-import org.apache.poi.openxml4j.opc.PackageAccess;
-import org.apache.poi.poifs.crypt.EncryptionInfo;
-import org.apache.poi.poifs.crypt.EncryptionMode;
-import org.apache.poi.poifs.crypt.Encryptor;
-import org.apache.poi.poifs.filesystem.POIFSFileSystem;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
 import javax.xml.namespace.NamespaceContext;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
-import java.lang.reflect.Field;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.time.LocalDate;
-import java.time.LocalDateTime;
-import java.time.LocalTime;
 import java.util.*;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
 
 
 
@@ -31,9 +19,11 @@ import java.util.zip.ZipOutputStream;
 public class Workbook implements AutoCloseable {
 
     SharedStrings sharedStrings;
-    Path tmp;
+    CompiledTemplate template;
+    IPartStore parts;
     HashMap<String, String> sheets = new HashMap<>();
     IReport report;
+    WorkbookOptions options;
     NamespaceContext context;
 
 
@@ -45,186 +35,338 @@ public class Workbook implements AutoCloseable {
      */
     public Workbook(Path template, IReport report) {
 
-        context = new ExcelNamespaceContext();
+        this(template, report, new WorkbookOptions());
 
-        // データ
-        this.report = report;
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+    * 展開済みの SpreadsheetML 構造を Excel ファイルとして操作するクラスのコンストラクタです。
+     * @param template テンプレートとして使用する展開済み SpreadsheetML フォルダのパス
+     * @param report テンプレートに挿入する値としてのデータオブジェクト
+     * @param options 生成方法のオプション
+     */
+    public Workbook(Path template, IReport report, WorkbookOptions options) {
 
         try {
-            // テンプレートを一時フォルダとしてコピー
-            tmp = Files.createTempDirectory(null);
-            copy(template, tmp);
+            // テンプレートを読み込み
+            initialize(CompiledTemplate.load(template), report, options);
 
-            // ワークシートのリストを読み込み
-            sheets.putAll(getSheets(tmp));
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+        }
 
-            // 共有文字列の読み込み
-            sharedStrings = new SharedStrings(tmp);
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 読み込み済みのテンプレートを Excel ファイルとして操作するクラスのコンストラクタです。
+     * テンプレートはコピーされず、変更されたパーツのみが新たに生成されます。
+     * @param template 読み込み済みのテンプレート
+     * @param report テンプレートに挿入する値としてのデータオブジェクト
+     */
+    public Workbook(CompiledTemplate template, IReport report) {
+
+        this(template, report, new WorkbookOptions());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 読み込み済みのテンプレートを Excel ファイルとして操作するクラスのコンストラクタです。
+     * テンプレートはコピーされず、変更されたパーツのみが新たに生成されます。
+     * @param template 読み込み済みのテンプレート
+     * @param report テンプレートに挿入する値としてのデータオブジェクト
+     * @param options 生成方法のオプション
+     */
+    public Workbook(CompiledTemplate template, IReport report, WorkbookOptions options) {
 
-            // データの書き込み
-            render(tmp);
+        try {
+            initialize(template, report, options);
 
         } catch(Exception ex) {
             System.out.println(Arrays.toString(ex.getStackTrace()));
         }
 
+    }
+    //------------------------------------------------------------------------------------------------
+    private Workbook() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 記入中の例外をそのまま送出するワークブックの生成です。
+     */
+    static Workbook create(CompiledTemplate template, IReport report, WorkbookOptions options) throws Exception {
+
+        Workbook workbook = new Workbook();
+        workbook.initialize(template, report, options);
+        return workbook;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void initialize(CompiledTemplate template, IReport report, WorkbookOptions options) throws Exception {
+
+        context = new ExcelNamespaceContext();
+
+        // データ
+        this.report = report;
+        this.template = template;
+        this.options = options;
+
+        // テンプレートのパーツを参照し、変更されたパーツだけを保持する
+        parts = options.getPartStore().open(template);
+
+        // ワークシートのリストを読み込み
+        sheets.putAll(template.getSheets());
+
+        // 共有文字列の読み込み
+        sharedStrings = new SharedStrings(template, parts);
+
+        // データの書き込み
+        render();
+
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * クローズ時に自動的に一時フォルダを削除します。
+     * クローズ時に生成したパーツを破棄します。
      */
-    @SuppressWarnings("ResultOfMethodCallIgnored")
     public void close() {
 
-        if(tmp == null || ! Files.exists(tmp)) {
-            return;
+        if(parts != null) {
+            parts.close();
         }
 
-        try {
-            // Excel ファイル生成用の一時フォルダを削除
-            Files.walk(tmp).sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-        }
+    }
+    //------------------------------------------------------------------------------------------------
+    private void render() throws Exception {
+
+        render(report);
 
     }
     //------------------------------------------------------------------------------------------------
-    private void render(Path tmp) {
+    @SuppressWarnings("unchecked")
+    private <T extends IReport> void render(T report) throws Exception {
+
+        ReportBinder<T> binder = ReportBinder.of((Class<T>)report.getClass());
 
-        if(tmp == null || ! Files.exists(tmp)) {
+        if(options.getExecutor() != null && ! options.isStreaming()) {
+            renderParallel(binder, report, options.getExecutor());
             return;
         }
 
-        // データをパースしてシートごとに格納
-        HashMap<String, HashMap<String, Object>> itemsPerSheet = new HashMap<>() {{
-            putAll(parseFields());
-        }};
+        // 共有文字列を使わなければ、逐次処理のシートも並列に処理できる
+        if(options.getExecutor() != null && options.isInlineStrings()) {
+            renderParallelStreaming(binder, report, options.getExecutor());
+            return;
+        }
 
         // シートごとに書き込む
-        try {
-            for(String sheetId : itemsPerSheet.keySet()) {
-                Worksheet worksheet = new Worksheet(tmp, sheetId, sharedStrings);
-                HashMap<String, Object> items = itemsPerSheet.get(sheetId);
-
-                for(String address : items.keySet()) {
-                    Object value = items.get(address);
-                    if( ! (value instanceof List<?>) && ! (value instanceof Map<?, ?>)) {
-                        setCellValue(worksheet, address, value);
-                    }
-                }
-                for(String address : items.keySet()) {
-                    Object value = items.get(address);
-                    if(value instanceof List<?>) {
-                        insertRows(worksheet, address, value);
-                    }
-                }
-
-                worksheet.save();
+        for(String sheetName : binder.getSheetNames()) {
+            // シート名を表示上のものから内部 ID に変換
+            if( ! sheets.containsKey(sheetName)) {
+                continue;
+            }
+            String sheetId = sheets.get(sheetName);
+
+            IWorksheet worksheet;
+            if(options.isStreaming()) {
+                StreamingWorksheet w = new StreamingWorksheet(parts, sheetId, sharedStrings);
+                w.inlineStrings = options.isInlineStrings();
+                worksheet = w;
+            } else {
+                Worksheet w = new Worksheet(template, parts, sheetId, sharedStrings);
+                w.inlineStrings = options.isInlineStrings();
+                worksheet = w;
             }
 
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+            binder.bind(report, sheetName, worksheet);
+
+            worksheet.save();
         }
 
     }
     //------------------------------------------------------------------------------------------------
-    private HashMap<String, HashMap<String, Object>> parseFields() {
+    /*
+     * シートごとの記入と XML の生成を並列に行います。
+     * 文字列はシート単位の表に記入し、シートの順番で共有文字列に統合してからインデックスを置き換えます。
+     */
+    private <T extends IReport> void renderParallel(ReportBinder<T> binder, T report, Executor executor) throws Exception {
 
-        HashMap<String, HashMap<String, Object>> itemsPerSheet = new HashMap<>();
+        List<String> sheetNames = new ArrayList<>();
+        for(String sheetName : binder.getSheetNames()) {
+            if(sheets.containsKey(sheetName)) {
+                sheetNames.add(sheetName);
+            }
+        }
+
+        Worksheet[] worksheets = new Worksheet[sheetNames.size()];
+        SheetStrings[] strings = new SheetStrings[sheetNames.size()];
 
         try {
-            for(Field f : report.getClass().getDeclaredFields()) {
-                if(f.isAnnotationPresent(Range.class)) {
-                    // シート名を表示上のものから内部 ID に変換
-                    String sheetName = f.getAnnotation(Range.class).sheet();
-                    if(sheets.containsKey(sheetName)) {
-                        String sheetId = sheets.get(sheetName);
-                        if( ! itemsPerSheet.containsKey(sheetId)) {
-                            itemsPerSheet.put(sheetId, new HashMap<>());
-                        }
-                        String address = f.getAnnotation(Range.class).range();
-                        Object value = f.get(report);
-                        itemsPerSheet.get(sheetId).put(address, value);
-                    }
+            // 記入と表領域の挿入
+            CompletableFuture<?>[] tasks = new CompletableFuture<?>[worksheets.length];
+            for(int i = 0; i < worksheets.length; i++) {
+                int n = i;
+                tasks[i] = CompletableFuture.runAsync(() -> {
+                    String sheetName = sheetNames.get(n);
+                    strings[n] = new SheetStrings();
+                    worksheets[n] = new Worksheet(template, parts, sheets.get(sheetName), strings[n]);
+                    worksheets[n].inlineStrings = options.isInlineStrings();
+                    binder.bind(report, sheetName, worksheets[n]);
+                    worksheets[n].prepare();
+                }, executor);
+            }
+            CompletableFuture.allOf(tasks).join();
+
+            // 共有文字列への統合はシートの順番に行う
+            for(int i = 0; i < worksheets.length; i++) {
+                worksheets[i].remap(sharedStrings.merge(strings[i]));
+            }
+
+            // XML の生成
+            List<CompletableFuture<byte[]>> results = new ArrayList<>();
+            for(Worksheet worksheet : worksheets) {
+                results.add(CompletableFuture.supplyAsync(worksheet::serialize, executor));
+            }
+            for(int i = 0; i < worksheets.length; i++) {
+                byte[] bytes = results.get(i).join();
+                if(bytes != null) {
+                    parts.put(worksheets[i].getName(), bytes);
                 }
             }
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-        }
 
-        return itemsPerSheet;
+        } catch(CompletionException ex) {
+            throw ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex;
+        }
 
     }
     //------------------------------------------------------------------------------------------------
-    @SuppressWarnings("unchecked")
-    private void insertRows(Worksheet worksheet, String address, Object value) {
+    /*
+     * 全ての文字列を共有文字列を使わずに記入する場合に、逐次処理のシートを並列に処理します。
+     */
+    private <T extends IReport> void renderParallelStreaming(ReportBinder<T> binder, T report, Executor executor) throws Exception {
 
-        try {
-            List<IReport> items = (List<IReport>)value;
+        List<CompletableFuture<Void>> results = new ArrayList<>();
 
-            if(items.size() == 0) {
-                return;
+        for(String sheetName : binder.getSheetNames()) {
+            if( ! sheets.containsKey(sheetName)) {
+                continue;
             }
 
-            Address a = new Address(address);
-            int r = a.getRow();
-            int c = a.getColumn();
+            StreamingWorksheet worksheet = new StreamingWorksheet(parts, sheets.get(sheetName), sharedStrings);
+            worksheet.inlineStrings = true;
 
-            worksheet.insertRows(a.getRow(), items.size());
+            // 異なるパーツへの書き込みは並列に行える
+            results.add(CompletableFuture.runAsync(() -> {
+                binder.bind(report, sheetName, worksheet);
+                worksheet.save();
+            }, executor));
+        }
 
-            for(int i = 0; i < items.size(); i++) {
-                IReport e = items.get(i);
-                for(Field f : e.getClass().getDeclaredFields()) {
-                    if(f.isAnnotationPresent(RangeR1C1.class)) {
-                        int columnOffset = f.getAnnotation(RangeR1C1.class).column() - 1;
-                        setCellValue(worksheet, a.set(r + i, c + columnOffset).getA1(), f.get(e));
-                    }
-                }
-            }
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+        try {
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0])).join();
+
+        } catch(CompletionException ex) {
+            throw ex.getCause() instanceof Exception ? (Exception)ex.getCause() : ex;
         }
 
     }
     //------------------------------------------------------------------------------------------------
-    private void setCellValue(Worksheet worksheet, String address, Object value) {
+    /**
+     * 同じテンプレートに複数のデータオブジェクトを並列に記入し、1 件ずつ出力先に書き出します。
+     * テンプレートは一度だけ読み込まれ、同時に処理する件数は {@link WorkbookOptions#setParallelism(int)} で制限されます。
+     * 記入または書き出しに失敗した場合は、その 1 件だけが errors に通知され、残りの処理は続行されます。
+     * Error（OutOfMemoryError など）は {@link WorkbookException} に包んで通知します。データオブジェクトのストリームは閉じられます。
+     * @param template 読み込み済みのテンプレート
+     * @param reports テンプレートに挿入する値としてのデータオブジェクト
+     * @param sink 生成したワークブックの出力先
+     * @param errors 失敗した場合の通知先。null の場合は全ての処理を終えた後に、失敗をまとめた {@link WorkbookException} を投げます
+     * @return 書き出しに成功した件数
+     */
+    public static long renderAll(CompiledTemplate template, Stream<? extends IReport> reports, IWorkbookSink sink, IRenderErrorHandler errors) {
 
-        Class<?> type = value.getClass();
+        return renderAll(template, reports, sink, errors, new WorkbookOptions());
 
-        if(type.equals(Integer.class)) {
-            worksheet.setCellValue(address, (int)value);
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 同じテンプレートに複数のデータオブジェクトを並列に記入し、1 件ずつ出力先に書き出します。
+     * {@link WorkbookOptions#setExecutor(java.util.concurrent.Executor)} が指定されていればそれを 1 件ごとの処理に使用し、
+     * 各ワークブック内のシートは逐次処理します。
+     * @param template 読み込み済みのテンプレート
+     * @param reports テンプレートに挿入する値としてのデータオブジェクト
+     * @param sink 生成したワークブックの出力先
+     * @param errors 失敗した場合の通知先。null の場合は全ての処理を終えた後に、失敗をまとめた {@link WorkbookException} を投げます
+     * @param options 生成方法のオプション
+     * @return 書き出しに成功した件数
+     */
+    public static long renderAll(CompiledTemplate template, Stream<? extends IReport> reports, IWorkbookSink sink,
+                                 IRenderErrorHandler errors, WorkbookOptions options) {
 
-        } else if(type.equals(Double.class)) {
-            worksheet.setCellValue(address, (double)value);
+        // 通知先がなければ失敗を集めておき、最後にまとめて投げる
+        Queue<Exception> failures = new ConcurrentLinkedQueue<>();
+        IRenderErrorHandler handler = errors != null ? errors : (index, report, ex) -> failures.add(ex);
 
-        } else if(type.equals(String.class)) {
-            worksheet.setCellValue(address, (String)value);
+        int parallelism = options.getParallelism();
+        Semaphore permits = new Semaphore(parallelism);
+        AtomicLong succeeded = new AtomicLong();
 
-        } else if(type.equals(Long.class)) {
-            worksheet.setCellValue(address, (long)value);
+        // ワークブック内のシートは逐次処理する（同じ Executor での入れ子の待機を避ける）
+        WorkbookOptions itemOptions = new WorkbookOptions()
+            .setStreaming(options.isStreaming())
+            .setInlineStrings(options.isInlineStrings())
+            .setCompressionLevel(options.getCompressionLevel())
+            .setPartStore(options.getPartStore())
+            .setSpinCount(options.getSpinCount())
+            .setKeyCache(options.getKeyCache());
 
-        } else if(type.equals(Float.class)) {
-            worksheet.setCellValue(address, (float)value);
+        ExecutorService owned = options.getExecutor() == null ? Executors.newFixedThreadPool(parallelism) : null;
+        Executor executor = owned != null ? owned : options.getExecutor();
 
-        } else if(type.equals(Byte.class)) {
-            worksheet.setCellValue(address, (byte)value);
+        long count = 0;
 
-        } else if(type.equals(Short.class)) {
-            worksheet.setCellValue(address, (short)value);
+        try(reports) {
+            Iterator<? extends IReport> iterator = reports.iterator();
+            long index = 0;
 
-        } else if(type.equals(Boolean.class)) {
-            worksheet.setCellValue(address, (boolean)value);
+            while(iterator.hasNext()) {
+                IReport report = iterator.next();
+                long n = index++;
 
-        } else if(type.equals(LocalDateTime.class)) {
-            worksheet.setCellValue(address, (LocalDateTime)value);
+                permits.acquireUninterruptibly();
+                try {
+                    executor.execute(() -> {
+                        try(Workbook workbook = create(template, report, itemOptions)) {
+                            sink.accept(n, report, workbook);
+                            succeeded.incrementAndGet();
+                        } catch(Throwable ex) {
+                            handler.failed(n, report, ex instanceof Exception ? (Exception)ex : new WorkbookException(ex));
+                        } finally {
+                            permits.release();
+                        }
+                    });
+                } catch(RejectedExecutionException ex) {
+                    permits.release();
+                    handler.failed(n, report, ex);
+                }
+            }
 
-        } else if(type.equals(LocalDate.class)) {
-            worksheet.setCellValue(address, (LocalDate)value);
+            // 全ての処理の完了を待つ
+            permits.acquireUninterruptibly(parallelism);
+            permits.release(parallelism);
+            count = index;
 
-        } else if(type.equals(LocalTime.class)) {
-            worksheet.setCellValue(address, (LocalTime)value);
+        } finally {
+            if(owned != null) {
+                owned.shutdown();
+            }
         }
 
+        if( ! failures.isEmpty()) {
+            WorkbookException ex = new WorkbookException(failures.size() + " of " + count + " workbooks failed", failures.poll());
+            failures.forEach(ex::addSuppressed);
+            throw ex;
+        }
+
+        return succeeded.get();
+
     }
     //------------------------------------------------------------------------------------------------
     /**
@@ -245,19 +387,18 @@ public class Workbook implements AutoCloseable {
     public byte[] save(String password) {
 
         sharedStrings.save();
-        byte[] bytes = zip(tmp);
-
-        if(password != null && ! password.isEmpty()) {
-            return encrypt(bytes, password);
-        } else {
-            try(OPCPackage opc = OPCPackage.open(new ByteArrayInputStream(bytes));
-                ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-                opc.save(output);
-                return output.toByteArray();
-            } catch(Exception ex) {
-                System.out.println(Arrays.toString(ex.getStackTrace()));
-                return null;
-            }
+
+        if(password == null || password.isEmpty()) {
+            return zip();
+        }
+
+        try(ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            encrypt(output, password);
+            return output.toByteArray();
+
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
+            return null;
         }
 
     }
@@ -281,182 +422,146 @@ public class Workbook implements AutoCloseable {
 
         sharedStrings.save();
 
-        zip(tmp, path);
-
-        if(password != null && ! password.isEmpty()) {
-            encrypt(path, password);
+        if(password == null || password.isEmpty()) {
+            zip(path);
+            return;
         }
 
-    }
-    //------------------------------------------------------------------------------------------------
-    private byte[] encrypt(byte[] bytes, String password) {
-
-        byte[] encryptedBytes = null;
-
-        try(POIFSFileSystem poifs = new POIFSFileSystem()) {
-            Encryptor encryptor = new EncryptionInfo(EncryptionMode.agile).getEncryptor();
-            encryptor.confirmPassword(password);
-
-            try(OPCPackage opc = OPCPackage.open(new ByteArrayInputStream(bytes));
-                OutputStream output = encryptor.getDataStream(poifs)) {
-                opc.save(output);
-            } catch(Exception ex) {
-                System.out.println(Arrays.toString(ex.getStackTrace()));
-                return null;
-            }
-
-            try(ByteArrayOutputStream output = new ByteArrayOutputStream()) {
-                poifs.writeFilesystem(output);
-                encryptedBytes = output.toByteArray().clone();
-            } catch(Exception ex) {
-                System.out.println(Arrays.toString(ex.getStackTrace()));
-                return null;
-            }
+        try(OutputStream output = Files.newOutputStream(path);
+            PooledOutputStream buffered = new PooledOutputStream(output)) {
+            encrypt(buffered, password);
 
         } catch(Exception ex) {
             System.out.println(Arrays.toString(ex.getStackTrace()));
         }
 
-       return encryptedBytes;
-
     }
     //------------------------------------------------------------------------------------------------
-    private void encrypt(Path path, String password) {
+    /**
+     * Excel ファイルを出力ストリームに直接書き出します。パスワードによる暗号化はされません。
+     * ファイル全体をメモリ上に作らず、使い回されるバッファを通して書き込みます。出力ストリームは閉じません。
+     * @param output 出力ストリーム（サーブレットのレスポンスなど）
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writeTo(OutputStream output) throws IOException {
 
-        File file = path.toFile();
+        sharedStrings.save();
 
-        try(POIFSFileSystem poifs = new POIFSFileSystem()) {
-            Encryptor encryptor = new EncryptionInfo(EncryptionMode.agile).getEncryptor();
-            encryptor.confirmPassword(password);
+        try(PooledOutputStream buffered = new PooledOutputStream(output)) {
+            zip(buffered);
+        }
 
-            try(OPCPackage opc = OPCPackage.open(file, PackageAccess.READ_WRITE);
-                OutputStream output = encryptor.getDataStream(poifs)) {
-                opc.save(output);
-            } catch(Exception ex) {
-                System.out.println(Arrays.toString(ex.getStackTrace()));
-            }
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * Excel ファイルをチャネルに直接書き出します。パスワードによる暗号化はされません。
+     * ファイル全体をメモリ上に作らず、使い回されるバッファを通して書き込みます。チャネルは閉じません。
+     * @param channel チャネル（ファイルチャネルなど）
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
 
-            try(FileOutputStream output = new FileOutputStream(file)) {
-                poifs.writeFilesystem(output);
-            } catch(Exception ex) {
-                System.out.println(Arrays.toString(ex.getStackTrace()));
-            }
+        sharedStrings.save();
 
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+        try(PooledOutputStream buffered = new PooledOutputStream(channel)) {
+            zip(buffered);
         }
 
     }
     //------------------------------------------------------------------------------------------------
-    private byte[] zip(Path source) {
-
-        byte[] bytes = null;
+    /**
+     * パスワードにより暗号化された Excel ファイルを出力ストリームに直接書き出します。
+     * パッケージはメモリ上に一度だけ作り、セグメントごとに暗号化しながら書き込みます（Executor があれば並列に暗号化）。
+     * 出力ストリームは閉じません。
+     * @param output 出力ストリーム（サーブレットのレスポンスなど）
+     * @param password パスワード。null または空文字の場合は暗号化しない
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writeTo(OutputStream output, String password) throws IOException {
 
-        try(ByteArrayOutputStream output = new ByteArrayOutputStream();
-            ZipOutputStream zip = new ZipOutputStream(output)) {
-            Files.walk(source).filter(path -> ! Files.isDirectory(path)).forEach(path -> {
-                try {
-                    ZipEntry e = new ZipEntry(source.relativize(path).toString().replace("\\", "/"));
-                    zip.putNextEntry(e);
-                    Files.copy(path, zip);
-                    zip.closeEntry();
-                } catch(Exception ex) {
-                    System.out.println(Arrays.toString(ex.getStackTrace()));
-                }
-            });
+        if(password == null || password.isEmpty()) {
+            writeTo(output);
+            return;
+        }
 
-            bytes = output.toByteArray().clone();
+        sharedStrings.save();
 
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+        try(PooledOutputStream buffered = new PooledOutputStream(output)) {
+            encrypt(buffered, password);
         }
 
-        return bytes;
-
     }
     //------------------------------------------------------------------------------------------------
-    private void zip(Path source, Path target) {
+    /**
+     * パスワードにより暗号化された Excel ファイルをチャネルに直接書き出します。チャネルは閉じません。
+     * @param channel チャネル（ファイルチャネルなど）
+     * @param password パスワード。null または空文字の場合は暗号化しない
+     * @throws IOException 書き込みに失敗した場合
+     */
+    public void writeTo(WritableByteChannel channel, String password) throws IOException {
 
-        try(FileOutputStream output = new FileOutputStream(target.toFile());
-            ZipOutputStream zip = new ZipOutputStream(output)) {
-            Files.walk(source).filter(path -> ! Files.isDirectory(path)).forEach(path -> {
-                try {
-                    zip.putNextEntry(new ZipEntry(source.relativize(path).toString().replace("\\", "/")));
-                    Files.copy(path, zip);
-                    zip.closeEntry();
-                } catch(Exception ex) {
-                    System.out.println(Arrays.toString(ex.getStackTrace()));
-                }
-            });
+        if(password == null || password.isEmpty()) {
+            writeTo(channel);
+            return;
+        }
 
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+        sharedStrings.save();
+
+        try(PooledOutputStream buffered = new PooledOutputStream(channel)) {
+            encrypt(buffered, password);
         }
 
     }
     //------------------------------------------------------------------------------------------------
-    private void copy(Path from, Path to) {
+    /*
+     * 各パーツを OPC パッケージとしてメモリ上に書き出し、暗号化して出力ストリームに書き込みます。
+     * 複合ファイルのヘッダにパッケージの大きさが必要なため、パッケージだけはメモリ上に保持します。
+     */
+    private void encrypt(OutputStream output, String password) throws IOException {
 
-        try {
-            Files.walk(from).forEach(path -> {
-                Path f = to.resolve(from.relativize(path));
-                if( ! Files.exists(f)) {
-                    if(Files.isDirectory(path)) {
-                        try {
-                            Files.createDirectory(f);
-                        } catch(Exception ex) {
-                            System.out.println(Arrays.toString(ex.getStackTrace()));
-                        }
-                    } else {
-                        try {
-                            Files.copy(path, f);
-                        } catch(Exception ex) {
-                            System.out.println(Arrays.toString(ex.getStackTrace()));
-                        }
-                    }
-                }
-            });
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
-        }
+        PackageEncryptor.Buffer buffer = new PackageEncryptor.Buffer();
+        zip(buffer);
+        PackageEncryptor.encrypt(buffer, password, options, output);
 
     }
     //------------------------------------------------------------------------------------------------
-    private HashMap<String, String> getSheets(Path tmp) {
+    private byte[] zip() {
 
-        HashMap<String, String> sheets = new HashMap<>();
+        byte[] bytes = null;
 
-        File file = Paths.get(tmp.toString(), "xl/workbook.xml").toFile();
+        try(ByteArrayOutputStream output = new ByteArrayOutputStream()) {
+            zip(output);
+            bytes = output.toByteArray();
 
-        if( ! file.exists()) {
-            return sheets;
+        } catch(Exception ex) {
+            System.out.println(Arrays.toString(ex.getStackTrace()));
         }
 
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            Document xml = factory.newDocumentBuilder().parse(file);
-
-            List<Element> items = XPath.selectNodes(xml, "/x:workbook/x:sheets/x:sheet");
-
-            if(items != null) {
-                String uri = context.getNamespaceURI("o");
-                for(Element e : items) {
-                    String id = e.getAttributeNS(uri, "id");
-                    String name = e.getAttribute("name");
-                    sheets.put(name, id.replace("rId", "sheet"));
-                }
-            }
+        return bytes;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void zip(Path target) {
 
-            return sheets;
+        try(OutputStream output = Files.newOutputStream(target);
+            PooledOutputStream buffered = new PooledOutputStream(output)) {
+            zip(buffered);
 
         } catch(Exception ex) {
             System.out.println(Arrays.toString(ex.getStackTrace()));
-            return sheets;
         }
 
     }
     //------------------------------------------------------------------------------------------------
+    /*
+     * 各パーツを OPC パッケージとして書き出します。出力ストリームは閉じません。
+     */
+    private void zip(OutputStream output) throws IOException {
+
+        PackageWriter.write(parts, template, output, options.getCompressionLevel(), options.getExecutor());
+
+    }
+    //------------------------------------------------------------------------------------------------
 
 }
 //----------------------------------------------------------------------------------------------------
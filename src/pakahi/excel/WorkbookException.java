@@ -0,0 +1,36 @@
+package pakahi.excel;
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * ワークブックの生成中に発生した例外です。
+ */
+public class WorkbookException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークブックの生成中に発生した例外のコンストラクタです。
+     * @param message 詳細メッセージ
+     * @param cause 原因となった例外
+     */
+    public WorkbookException(String message, Throwable cause) {
+
+        super(message, cause);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークブックの生成中に発生した例外のコンストラクタです。
+     * @param cause 原因となった例外
+     */
+    public WorkbookException(Throwable cause) {
+
+        super(cause);
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
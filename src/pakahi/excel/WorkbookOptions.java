@@ -0,0 +1,231 @@
+package pakahi.excel;
+
+import java.util.concurrent.Executor;
+import java.util.zip.Deflater;
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * {@link Workbook} の生成方法を指定するオプションです。
+ */
+public class WorkbookOptions {
+
+    boolean streaming = false;
+    boolean inlineStrings = false;
+    Executor executor;
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+    IPartStore.IPartStoreFactory partStore = IPartStore.inMemory();
+    int spinCount = AgileEncryption.DEFAULT_SPIN_COUNT;
+    EncryptionKeyCache keyCache;
+
+
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートを DOM を使わずに逐次処理するかどうかを設定します。
+     * 大きな表を挿入するときにメモリの使用量を抑えられます。
+     * @param streaming 逐次処理する場合は true
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setStreaming(boolean streaming) {
+
+        this.streaming = streaming;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートを逐次処理するかどうかを返します。
+     * @return 逐次処理する場合は true
+     */
+    public boolean isStreaming() {
+
+        return streaming;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 全ての文字列を共有文字列（sharedStrings.xml）を使わずにセルに直接記入するかどうかを設定します（t="inlineStr"）。
+     * フィールドごとに指定する場合は {@link Range#inlineString()}・{@link RangeR1C1#inlineString()} を使用します。
+     * 逐次処理と組み合わせると、シートを並列に処理できるようになります。
+     * @param inlineStrings 直接記入する場合は true
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setInlineStrings(boolean inlineStrings) {
+
+        this.inlineStrings = inlineStrings;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 全ての文字列を共有文字列を使わずに記入するかどうかを返します。
+     * @return 直接記入する場合は true
+     */
+    public boolean isInlineStrings() {
+
+        return inlineStrings;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * シートごとの記入と XML の生成を並列に行うための Executor を設定します。
+     * {@code ForkJoinPool.commonPool()} や仮想スレッドの Executor などを指定できます。
+     * 共有文字列のインデックスは逐次処理と同じになります。逐次処理（{@link #setStreaming(boolean)}）では、
+     * {@link #setInlineStrings(boolean)} を指定した場合にだけ使用されます。
+     * 保存時のパーツの圧縮にも使用されます。
+     * @param executor 並列処理に使用する Executor。null の場合は逐次処理
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setExecutor(Executor executor) {
+
+        this.executor = executor;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * シートを並列に処理するための Executor を返します。
+     * @return Executor。設定されていない場合は null
+     */
+    public Executor getExecutor() {
+
+        return executor;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link Workbook#renderAll} で同時に処理する件数の上限を設定します。既定値はプロセッサ数です。
+     * 処理中のワークブックだけがメモリに保持されるため、メモリの使用量もこの件数で制限されます。
+     * @param parallelism 同時に処理する件数（1 以上）
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setParallelism(int parallelism) {
+
+        if(parallelism < 1) {
+            throw new IllegalArgumentException("parallelism: " + parallelism);
+        }
+
+        this.parallelism = parallelism;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * {@link Workbook#renderAll} で同時に処理する件数の上限を返します。
+     * @return 同時に処理する件数
+     */
+    public int getParallelism() {
+
+        return parallelism;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 保存時にパーツを圧縮するレベルを設定します。既定値は {@link Deflater#DEFAULT_COMPRESSION} です。
+     * 0 を指定すると圧縮せずに格納（STORED）し、ファイルは大きくなりますが保存にかかる時間が最も短くなります。
+     * テンプレートから変更されていないパーツは、テンプレートの読み込み時に既定のレベルで圧縮したものがそのまま使用されます。
+     * @param compressionLevel 圧縮レベル（-1 ～ 9）
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setCompressionLevel(int compressionLevel) {
+
+        if(compressionLevel < Deflater.DEFAULT_COMPRESSION || compressionLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compressionLevel: " + compressionLevel);
+        }
+
+        this.compressionLevel = compressionLevel;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 保存時にパーツを圧縮するレベルを返します。
+     * @return 圧縮レベル
+     */
+    public int getCompressionLevel() {
+
+        return compressionLevel;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 生成中のパーツを保持する場所を設定します。既定値は {@link IPartStore#inMemory()} です。
+     * 大きなシートをメモリに保持したくない場合は {@link IPartStore#inDirectory(java.nio.file.Path)} を指定します。
+     * @param partStore パーツの保持場所を開く処理
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setPartStore(IPartStore.IPartStoreFactory partStore) {
+
+        if(partStore == null) {
+            throw new IllegalArgumentException("partStore: null");
+        }
+
+        this.partStore = partStore;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 生成中のパーツを保持する場所を返します。
+     * @return パーツの保持場所を開く処理
+     */
+    public IPartStore.IPartStoreFactory getPartStore() {
+
+        return partStore;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードによる暗号化で、パスワードのハッシュを繰り返す回数を設定します。既定値は 100000 です。
+     * 回数を減らすと暗号化は速くなりますが、パスワードの総当たりにも弱くなります。社内向けの出力などに限って使用してください。
+     * @param spinCount 繰り返す回数（0 ～ 10000000）
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setSpinCount(int spinCount) {
+
+        if(spinCount < 0 || spinCount > 10000000) {
+            throw new IllegalArgumentException("spinCount: " + spinCount);
+        }
+
+        this.spinCount = spinCount;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードによる暗号化で、パスワードのハッシュを繰り返す回数を返します。
+     * @return 繰り返す回数
+     */
+    public int getSpinCount() {
+
+        return spinCount;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードから導出した鍵のキャッシュを設定します。同じパスワードで多数のファイルを暗号化する場合に指定します。
+     * 複数のワークブックで同じキャッシュを共有できます。
+     * @param keyCache 鍵のキャッシュ。null の場合はファイルごとに導出
+     * @return このオプションオブジェクト
+     */
+    public WorkbookOptions setKeyCache(EncryptionKeyCache keyCache) {
+
+        this.keyCache = keyCache;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * パスワードから導出した鍵のキャッシュを返します。
+     * @return 鍵のキャッシュ。設定されていない場合は null
+     */
+    public EncryptionKeyCache getKeyCache() {
+
+        return keyCache;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
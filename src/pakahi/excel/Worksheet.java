@@ -1,25 +1,12 @@
 package pakahi.excel;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.*;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.File;
-import java.io.StringWriter;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
-import java.time.chrono.ChronoLocalDate;
-import java.time.temporal.ChronoUnit;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 
 
@@ -27,47 +14,86 @@ import java.util.List;
 //----------------------------------------------------------------------------------------------------
 /**
  * ワークシート用の XML ファイル（/xl/worksheets/sheetN.xml）を操作します。
+ * XML は DOM ではなく {@link SheetModel} として保持し、sheetData の外側はテンプレートのバイト列のまま出力します。
  */
-public class Worksheet {
+public class Worksheet implements IWorksheet {
 
-    File file;
-    Document xml;
+    private static final byte[] EMPTY = new byte[0];
+
+    IPartStore parts;
+    String name;
     SharedStrings sharedStrings;
-    NamespaceContext context;
-    String uri;
+
+    // 行とセルを配列で持つワークシートのモデル
+    SheetModel model;
+
+    // 保存時にまとめて挿入する表領域
+    List<Table> tables = new ArrayList<>();
+
+    // 要素の数が分からない表領域の記入中に、挿入後の行番号の代わりに記入する、既存の行の後ろに追加した行（記入中でなければ -1）
+    private int bindingRow = -1;
+    private int stagedRow;
+
+    // シート単位の共有文字列（並列処理用）
+    SheetStrings sheetStrings;
+
+    CellValueEncoder encoder = new CellValueEncoder();
+
+    // 文字列を全て共有文字列を使わずに記入する
+    boolean inlineStrings;
 
 
 
     //------------------------------------------------------------------------------------------------
     /**
      * ワークシート用の XML ファイル（/xl/worksheets/sheetN.xml）を操作するクラスのコンストラクタです。
-     * @param tmp 一時フォルダのパス
+     * @param parts SpreadsheetML 構造の各パーツ
      * @param sheetName シート名
      * @param sharedStrings 共有文字列オブジェクト
      */
-    public Worksheet(Path tmp, String sheetName, SharedStrings sharedStrings) {
+    public Worksheet(IPartStore parts, String sheetName, SharedStrings sharedStrings) {
 
-        this.sharedStrings = sharedStrings;
+        this(null, parts, sheetName, sharedStrings);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * テンプレートの解析済みのモデルを使うコンストラクタです。パーツがテンプレートから変更されていれば解析します。
+     */
+    Worksheet(CompiledTemplate template, IPartStore parts, String sheetName, SharedStrings sharedStrings) {
 
-        context = new ExcelNamespaceContext();
-        uri = context.getNamespaceURI("x");
+        this.parts = parts;
+        this.sharedStrings = sharedStrings;
 
-        file = Paths.get(tmp.toString(), "xl/worksheets", sheetName + ".xml").toFile();
+        name = "xl/worksheets/" + sheetName + ".xml";
 
-        if( ! file.exists()) {
-            System.out.println("Worksheet \"" + sheetName + "\" not found: " + file.getPath());
+        if( ! parts.contains(name)) {
+            System.out.println("Worksheet \"" + sheetName + "\" not found: " + name);
             return;
         }
 
         try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setNamespaceAware(true);
-            xml = factory.newDocumentBuilder().parse(file);
+            byte[] bytes = parts.get(name);
+            model = template != null ? template.getSheetModel(name, bytes) : null;
+            if(model == null) {
+                model = SheetModel.parse(bytes);
+            }
 
         } catch(Exception ex) {
             System.out.println(ex.getMessage());
         }
 
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 共有文字列の代わりにシート単位の文字列表を使うコンストラクタです。
+     * 記入された文字列のインデックスは remap で共有文字列のものに置き換えます。
+     */
+    Worksheet(CompiledTemplate template, IPartStore parts, String sheetName, SheetStrings sheetStrings) {
+
+        this(template, parts, sheetName, (SharedStrings)null);
+        this.sheetStrings = sheetStrings;
+
     }
     // ------------------------------------------------------------------------------------------------
     /**
@@ -77,378 +103,459 @@ public class Worksheet {
      */
     public void insertRows(int from, int c) {
 
-        Element where;
-        Element source = XPath.selectSingleNode(xml, "/x:worksheet/x:sheetData/x:row[@r = " + from + "]");
-        int p = 1;
+        insertRows(new RowInsertionPlan().add(from, c));
+
+    }
+    // ------------------------------------------------------------------------------------------------
+    /**
+     * 計画した行の挿入をまとめて行います。
+     * 後続の行は挿入後の行番号にまとめて付け替えられるため、各行・各セルの番号は一度しか書き換えられません。
+     * @param plan 行の挿入の計画
+     */
+    public void insertRows(RowInsertionPlan plan) {
+
+        if(model != null) {
+            model.insertRows(plan);
+        }
+
+    }
+    // ------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各行に要素の値を記入します。
+     * 行の挿入と記入は {@link #save()} のときに全ての表領域についてまとめて行われます。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param items 各行に記入するデータオブジェクトのリスト
+     * @param writer 1 行分のセルを記入する処理
+     */
+    public void insertRows(String address, List<? extends IReport> items, IRowWriter writer) {
+
+        if(items.size() == 0) {
+            return;
+        }
+
+        tables.add(new Table(CellReference.row(Address.reference(address)), items, writer));
+
+    }
+    // ------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に要素の数だけ行を挿入し、各行に要素の値を記入します。要素の数は事前に分からなくても構いません。
+     * 要素は {@link #save()} のときに 1 件ずつ読み出して挿入後の行番号で記入し、データオブジェクトは保持しません。
+     * 記入した行だけを保持し、他の表領域の行と一緒にまとめて挿入します。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param items 各行に記入するデータオブジェクト
+     * @param writer 1 行分のセルを記入する処理
+     */
+    @Override
+    public void insertRows(String address, Iterator<? extends IReport> items, IRowWriter writer) {
+
+        tables.add(new Table(CellReference.row(Address.reference(address)), items, writer));
+
+    }
+    // ------------------------------------------------------------------------------------------------
+    /**
+     * 表領域に指定した数の行を挿入し、各行に要素の番号を指定して値を記入します。
+     * 行は要素の数だけ一度に確保します。
+     * @param address 記入を開始する左上のセルの A1 形式のアドレス
+     * @param count 挿入する行数（要素の数）
+     * @param writer 1 行分のセルを記入する処理
+     */
+    public void insertRows(String address, int count, IRowIndexWriter writer) {
+
+        if(count <= 0) {
+            return;
+        }
+
+        tables.add(new Table(CellReference.row(Address.reference(address)), count, writer));
 
-        if(source == null) {
-            p = 0;
-            source = xml.createElementNS(uri, "row");
+    }
+    //------------------------------------------------------------------------------------------------
+    private void insertTables() {
+
+        if(tables.isEmpty()) {
+            return;
         }
 
-        List<Element> rows = XPath.selectNodes(xml, "/x:worksheet/x:sheetData/x:row[@r > " + from + "]");
+        // 全ての表領域の行をまとめて挿入する（後続の行の行番号は一度しか書き換えない）
+        // 挿入後の行番号は手前の表領域の行数で決まるので、表領域を上から順に扱う
+        tables.sort(Comparator.comparingInt(table -> table.row));
 
-        if(rows != null && rows.size() > 0) {
-            for(Element row : rows) {
-                int r = Integer.parseInt(row.getAttribute("r")) + c - 1;
-                shiftRow(row, r);
+        RowInsertionPlan plan = new RowInsertionPlan();
+        Map<Integer, SheetModel.RowBlock> blocks = new HashMap<>();
+
+        try {
+            for(Table table : tables) {
+                int count = table.count();
+                if(count < 0) {
+                    count = bindTable(table, plan.map(table.row), blocks);
+                }
+                plan.add(table.row, count);
             }
-            where = rows.get(0);
-            for(int i = p; i < c; i++) {
-                where.getParentNode().insertBefore(shiftRow((Element)source.cloneNode(true), from + i), where);
+
+            if(model != null) {
+                model.insertRows(plan, blocks);
             }
-        } else {
-            where = XPath.selectSingleNode(xml, "/x:worksheet/x:sheetData");
-            if(where != null) {
-                for(int i = p; i < c; i++) {
-                    where.appendChild(shiftRow((Element)source.cloneNode(true), from + i));
+
+            // 先頭の要素はひな形の行に、続く要素は複製した行に記入する
+            for(Table table : tables) {
+                for(int r = plan.map(table.row); table.hasNext(); r++) {
+                    table.writeNext(this, r);
                 }
             }
+        } catch(WorkbookException ex) {
+            throw ex;
+        } catch(Exception ex) {
+            throw new WorkbookException(name, ex);
         }
 
+        tables.clear();
+
     }
     //------------------------------------------------------------------------------------------------
-    private Element shiftRow(Element row, int r) {
+    /*
+     * 要素の数が分からない表領域の要素を 1 件ずつ読み出し、既存の行の後ろに複製したひな形の行に記入します。
+     * 記入した行は取り外して挿入位置ごとに保持し、記入した要素の数を返します。
+     * 同じ位置に記入済みの行があれば、それを戻して重ねて記入します。
+     */
+    private int bindTable(Table table, int first, Map<Integer, SheetModel.RowBlock> blocks) throws Exception {
 
-        row.setAttribute("r", String.valueOf(r));
+        SheetModel.RowBlock block = blocks.remove(table.row);
+        int count = 0;
+        int start = -1;
+        int attached = 0;
 
-        NodeList cells = row.getElementsByTagName("c");
+        if(model != null && block != null) {
+            start = model.attachRows(block, table.row);
+            attached = block.count;
+        }
 
-        for(int j = 0; j < cells.getLength(); j++) {
-            Element cell = (Element)cells.item(j);
-            cell.setAttribute("r", new Address(cell.getAttribute("r")).setRow(r).getA1());
+        try {
+            for(; table.hasNext(); count++) {
+                bindingRow = first + count;
+                if(count < attached) {
+                    stagedRow = start + count;
+                } else {
+                    stagedRow = model != null ? model.appendRow(table.row) : bindingRow;
+                }
+                if(start < 0) {
+                    start = stagedRow;
+                }
+                table.writeNext(this, bindingRow);
+            }
+        } finally {
+            bindingRow = -1;
+            if(model != null && start >= 0) {
+                block = model.detachRows(start);
+            }
         }
 
-        return row;
+        if(block != null) {
+            blocks.put(table.row, block);
+        }
+
+        return count;
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに文字列を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに文字列を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, String value) {
+    public void setCellValue(int row, int column, String value) {
 
-        if(value == null || value.isEmpty()) {
-            setCellValueContent(address, "", "s");
+        if(inlineStrings) {
+            setInlineString(row, column, value);
+        } else if(value == null || value.isEmpty()) {
+            setCellValueContent(row, column, SheetModel.T_SHARED, EMPTY, 0);
         } else {
-            int p = sharedStrings.add(value);
-            setCellValueContent(address, String.valueOf(p), "s");
+            if(sheetStrings != null) {
+                int cell = getCell(row, column);
+                if(cell >= 0) {
+                    model.setLocalString(cell, sheetStrings.add(value));
+                }
+            } else {
+                int p = sharedStrings.add(value);
+                setCellValueContent(row, column, SheetModel.T_SHARED, p);
+            }
         }
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに真偽値を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに真偽値を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, Boolean value) {
+    public void setCellValue(int row, int column, Boolean value) {
 
-        setCellValueContent(address, (value ? "1" : "0"), "b");
+        setCellValueContent(row, column, SheetModel.T_BOOLEAN, value ? 1 : 0);
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに日時を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに日時を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, LocalDateTime value) {
+    public void setCellValue(int row, int column, LocalDateTime value) {
 
         //https://poi.apache.org/apidocs/4.1/
         // Java LocalDateTime を Excel のシリアル値に変換し、文字列として挿入;
-        double serial = getDateSerial(value) + getTimeSerial(value);
-        setCellValueContent(address, String.valueOf(serial), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに日付を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに日付を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, LocalDate value) {
+    public void setCellValue(int row, int column, LocalDate value) {
 
         //https://poi.apache.org/apidocs/4.1/
         // Java LocalDate を Excel のシリアル値に変換し、文字列として挿入;
-        double serial = getDateSerial(value);
-        setCellValueContent(address, String.valueOf(serial), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに時刻を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに時刻を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, LocalTime value) {
+    public void setCellValue(int row, int column, LocalTime value) {
 
         //https://poi.apache.org/apidocs/4.1/
         // Java LocalTime を Excel のシリアル値に変換し、文字列として挿入;
-        double serial = getTimeSerial(value);
-        setCellValueContent(address, String.valueOf(serial), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに int 型の数値を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに int 型の数値を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, int value) {
+    public void setCellValue(int row, int column, int value) {
 
-        setCellValueContent(address, String.valueOf(value), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, value);
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに long 型の整数を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに long 型の整数を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, long value) {
+    public void setCellValue(int row, int column, long value) {
 
-        setCellValueContent(address, String.valueOf(value), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, value);
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに byte 型の整数を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに byte 型の整数を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, byte value) {
+    public void setCellValue(int row, int column, byte value) {
 
-        setCellValueContent(address, String.valueOf(value), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, value);
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに short 型の整数を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに short 型の整数を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, short value) {
+    public void setCellValue(int row, int column, short value) {
 
-        setCellValueContent(address, String.valueOf(value), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, value);
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに double 型の小数を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに double 型の小数を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, double value) {
+    public void setCellValue(int row, int column, double value) {
 
-        setCellValueContent(address, String.valueOf(value), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
     //------------------------------------------------------------------------------------------------
     /**
-     * 指定したアドレスのセルに float 型の小数を記入します。
-     * @param address セルの A1 形式のアドレス
+     * 指定した行番号・列番号のセルに float 型の小数を記入します。
+     * @param row 行番号
+     * @param column 列番号
      * @param value 記入する値
      */
-    public void setCellValue(String address, float value) {
+    public void setCellValue(int row, int column, float value) {
 
-        setCellValueContent(address, String.valueOf(value), null);
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
     //------------------------------------------------------------------------------------------------
-    private void setCellValueContent(String address, String value, String type) {
-
-        Element cell = getCell(address, type);
+    /**
+     * 指定した行番号・列番号のセルに BigDecimal 型の数値を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, BigDecimal value) {
 
-        if(cell != null) {
-            append(cell, "v", uri).setTextContent(value);
-        }
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
-    // ------------------------------------------------------------------------------------------------
-    private Element append(Element e, String name, String uri) {
-
-        if(e.getElementsByTagName(name).getLength() == 0) {
-            e.appendChild(xml.createElementNS(uri, name));
-        }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに UTC の日時を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setCellValue(int row, int column, Instant value) {
 
-        return (Element)e.getElementsByTagName(name).item(0);
+        setCellValueContent(row, column, SheetModel.T_NONE, encoder.encode(value));
 
     }
-    // ------------------------------------------------------------------------------------------------
-    private Element getCell(String address, String type) {
-
-        Element cell = getCell(address);
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 指定した行番号・列番号のセルに、共有文字列を使わずに文字列を記入します。
+     * @param row 行番号
+     * @param column 列番号
+     * @param value 記入する値
+     */
+    public void setInlineString(int row, int column, String value) {
 
-        if(cell == null) {
-            return null;
-        }
+        int cell = getCell(row, column);
 
-        if(type == null || type.isEmpty()) {
-            cell.removeAttribute("t");
-        } else {
-            cell.setAttribute("t", type);
+        if(cell >= 0) {
+            model.setInlineString(cell, value == null ? "" : value);
         }
 
-        return cell;
-
     }
-    // ------------------------------------------------------------------------------------------------
-    private Element getCell(String address) {
-
-        int r = new Address(address).getRow();
-
-        try {
-            Element e = XPath.selectSingleNode(xml, "/x:worksheet/x:sheetData/x:row[@r=" + r + "]/x:c[@r='" + address + "']");
-
-            // 該当のセルがあれば返す
-            if(e != null) {
-                return e;
-            }
-
-            Element row = getRow(r);
-            if(row == null) {
-                return null;
-            }
-
-            // 該当のセル行がなければ作成する
-            e = xml.createElementNS(uri, "c");
-            e.setAttribute("r", address);
+    //------------------------------------------------------------------------------------------------
+    private int setCellValueContent(int row, int column, byte type, long value) {
 
-            // 挿入箇所を探す
-            Element where = null;
+        int cell = getCell(row, column);
 
-            NodeList cells = row.getElementsByTagName("c");
-            for(int i = 0; i < cells.getLength(); i++) {
-                Element cell = (Element)cells.item(i);
-                if(cell.getAttribute("r").compareTo(address) > 0) {
-                    where = cell;
-                    break;
-                }
-            }
+        if(cell >= 0) {
+            model.setLong(cell, type, value);
+        }
 
-            if(where == null) {
-                row.appendChild(e);
-            } else {
-                where.getParentNode().insertBefore(e, where);
-            }
+        return cell;
 
-            return e;
+    }
+    //------------------------------------------------------------------------------------------------
+    private int setCellValueContent(int row, int column, byte type, CellValueEncoder value) {
 
-        } catch(Exception ex) {
-            return null;
-        }
+        return setCellValueContent(row, column, type, value.getBytes(), value.length());
 
     }
-    // ------------------------------------------------------------------------------------------------
-    private Element getRow(int r) {
+    //------------------------------------------------------------------------------------------------
+    private int setCellValueContent(int row, int column, byte type, byte[] value, int length) {
 
-        Element e = XPath.selectSingleNode(xml, "/x:worksheet/x:sheetData/x:row[@r=" + r + "]");
+        int cell = getCell(row, column);
 
-        // 該当の行があれば返す
-        if(e != null) {
-            return e;
+        if(cell >= 0) {
+            model.setText(cell, type, value, length);
         }
 
-        // 該当の行がなければ作成する
-        e = xml.createElementNS(uri, "row");
-        e.setAttribute("r", String.valueOf(r));
+        return cell;
 
-        // 挿入箇所を探す
-        Element where = XPath.selectSingleNode(xml, "/x:worksheet/x:sheetData/x:row[@r>" + r + "][1]");
-        Node sheetData = xml.getElementsByTagName("sheetData").item(0);
+    }
+    // ------------------------------------------------------------------------------------------------
+    private int getCell(int row, int column) {
 
-        if(where == null) {
-            if(sheetData != null) {
-                sheetData.appendChild(e);
-                return e;
-            }
-        } else {
-            where.getParentNode().insertBefore(e, where);
-            return e;
+        if(row == bindingRow) {
+            row = stagedRow;
         }
 
-        return null;
+        return model != null ? model.getCell(row, column) : -1;
 
     }
     //------------------------------------------------------------------------------------------------
+    /**
+     * ワークシートをパーツとして保存します。
+     */
     public void save() {
 
-        save(this.file);
+        insertTables();
 
-    }
-    //------------------------------------------------------------------------------------------------
-    private void save(File file) {
-
-        try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            DOMSource source = new DOMSource(xml);
-            StreamResult result = new StreamResult(file);
-            transformer.transform(source, result);
-        } catch(Exception ex) {
-            System.out.println(Arrays.toString(ex.getStackTrace()));
+        byte[] bytes = serialize();
+        if(bytes != null) {
+            parts.put(name, bytes);
         }
 
     }
     //------------------------------------------------------------------------------------------------
-    /**
-     * XMLを文字列で返す（デバッグ用）
+    /*
+     * 表領域の行の挿入と記入を行います。並列処理では共有文字列の統合の前に呼び出します。
      */
-    String getOuterXml() {
+    void prepare() {
 
-        return getOuterXml(null);
+        insertTables();
 
     }
     //------------------------------------------------------------------------------------------------
-    private String getOuterXml(Node node) {
-
-        // XMLを文字列で返す（デバッグ用）
-
-        try {
-            Transformer transformer = TransformerFactory.newInstance().newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-
-            DOMSource source = new DOMSource(node != null ? node : xml.getDocumentElement());
-            StringWriter writer = new StringWriter();
-            StreamResult result = new StreamResult(writer);
-            transformer.transform(source, result);
-            return writer.toString();
+    /*
+     * シート単位の文字列のインデックスを、共有文字列のインデックスに置き換えます。
+     * 後から別の値で上書きされたセルは対象外です。
+     */
+    void remap(int[] indexes) {
 
-        } catch(Exception ex) {
-            return ex.getMessage();
+        if(model != null) {
+            model.remap(indexes);
         }
 
     }
     //------------------------------------------------------------------------------------------------
-    private double getDateSerial(LocalDateTime date) {
-
-        return getDateSerial(date.toLocalDate());
+    /*
+     * ワークシートを XML として直列化します。パーツには格納しません。
+     */
+    byte[] serialize() {
 
-    }
-    //------------------------------------------------------------------------------------------------
-    private double getDateSerial(LocalDate date) {
+        if(model == null) {
+            return null;
+        }
 
-        LocalDate origin = LocalDate.of(1900, 1, 1);
-        LocalDate ridge = LocalDate.of(1900, 2, 28);
-        return (double)ChronoUnit.DAYS.between(origin, date) + (date.isAfter(ChronoLocalDate.from(ridge)) ? 2 : 1);
+        try {
+            return model.toByteArray();
+        } catch(Exception ex) {
+            throw new WorkbookException(name, ex);
+        }
 
     }
     //------------------------------------------------------------------------------------------------
-    private double getTimeSerial(LocalDateTime time) {
+    /**
+     * ワークシートの名前（パーツ名）を返します。
+     * @return パーツ名
+     */
+    String getName() {
 
-        return getTimeSerial(time.toLocalTime());
+        return name;
 
     }
     //------------------------------------------------------------------------------------------------
-    private double getTimeSerial(LocalTime time) {
+    /**
+     * XMLを文字列で返す（デバッグ用）
+     */
+    String getOuterXml() {
 
-        double h = (double)time.getHour() / 24;
-        double m = (double)time.getMinute() / (24 * 60);
-        double s = (double)time.getSecond() / (24 * 60 * 60);
-        return h + m + s;
+        return model != null ? new String(model.toByteArray(), StandardCharsets.UTF_8) : null;
 
     }
     //------------------------------------------------------------------------------------------------
@@ -4,18 +4,48 @@ import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
 import javax.xml.xpath.XPathFactory;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 
 
 //----------------------------------------------------------------------------------------------------
 /**
  * ノード選択のための XPath 操作のクラスです。
+ * XPath のオブジェクトとコンパイル済みの式はスレッドごとに保持し、呼び出しのたびに生成しません。
  */
 public class XPath {
 
+    // スレッドごとに保持するコンパイル済みの式の数
+    private static final int CACHE_SIZE = 256;
+
+    private static final XPathFactory FACTORY = XPathFactory.newInstance();
+    private static final ExcelNamespaceContext NAMESPACES = new ExcelNamespaceContext();
+
+    // XPath とコンパイル済みの式はスレッドセーフではないため、スレッドごとに持つ
+    private static final ThreadLocal<Map<String, XPathExpression>> EXPRESSIONS = ThreadLocal.withInitial(
+        () -> new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, XPathExpression> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        });
+
+    private static final ThreadLocal<javax.xml.xpath.XPath> XPATH = ThreadLocal.withInitial(() -> {
+        javax.xml.xpath.XPath xpath;
+        synchronized(FACTORY) {
+            xpath = FACTORY.newXPath();
+        }
+        xpath.setNamespaceContext(NAMESPACES);
+        return xpath;
+    });
+
+
     //------------------------------------------------------------------------------------------------
     /**
      * 複数ノードを選択します。
@@ -28,9 +58,7 @@ public class XPath {
         List<Element> items = new ArrayList<>();
 
         try {
-            javax.xml.xpath.XPath xpath = XPathFactory.newInstance().newXPath();
-            xpath.setNamespaceContext(new ExcelNamespaceContext());
-            NodeList nodes = (NodeList)xpath.compile(path).evaluate(xml, XPathConstants.NODESET);
+            NodeList nodes = (NodeList)compile(path).evaluate(xml, XPathConstants.NODESET);
 
             if(nodes == null || nodes.getLength() == 0) {
                 return items;
@@ -57,9 +85,7 @@ public class XPath {
     public static Element selectSingleNode(Document xml, String path) {
 
         try {
-            javax.xml.xpath.XPath xpath = XPathFactory.newInstance().newXPath();
-            xpath.setNamespaceContext(new ExcelNamespaceContext());
-            NodeList nodes = (NodeList)xpath.compile(path).evaluate(xml, XPathConstants.NODESET);
+            NodeList nodes = (NodeList)compile(path).evaluate(xml, XPathConstants.NODESET);
 
             if(nodes == null || nodes.getLength() == 0) {
                 return null;
@@ -73,6 +99,23 @@ public class XPath {
 
     }
     //------------------------------------------------------------------------------------------------
+    /*
+     * XPath パターンをコンパイルします。同じスレッドでコンパイル済みの式があれば、それを返します。
+     */
+    private static XPathExpression compile(String path) throws XPathExpressionException {
+
+        Map<String, XPathExpression> expressions = EXPRESSIONS.get();
+        XPathExpression expression = expressions.get(path);
+
+        if(expression == null) {
+            expression = XPATH.get().compile(path);
+            expressions.put(path, expression);
+        }
+
+        return expression;
+
+    }
+    //------------------------------------------------------------------------------------------------
 
 }
 //----------------------------------------------------------------------------------------------------
@@ -0,0 +1,115 @@
+package pakahi.excel;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.transform.Result;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * XML の解析・直列化に使うファクトリとオブジェクトを保持します。
+ * ファクトリの検索（サービスローダによる走査）は最初の一度だけ行います。
+ * DocumentBuilder と Transformer はスレッドセーフではないため、スレッドごとに保持して使い回します。
+ * StAX の XMLInputFactory は設定後に変更しないため、全てのスレッドで共有します。
+ */
+final class XmlFactories {
+
+    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+    private static final TransformerFactory TRANSFORMER_FACTORY = TransformerFactory.newInstance();
+    private static final XMLInputFactory INPUT_FACTORY = XMLInputFactory.newInstance();
+
+    static {
+        DOCUMENT_BUILDER_FACTORY.setNamespaceAware(true);
+    }
+
+    private static final ThreadLocal<DocumentBuilder> DOCUMENT_BUILDER = ThreadLocal.withInitial(() -> {
+        try {
+            synchronized(DOCUMENT_BUILDER_FACTORY) {
+                return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+            }
+        } catch(ParserConfigurationException ex) {
+            throw new WorkbookException(ex);
+        }
+    });
+
+    private static final ThreadLocal<Transformer> TRANSFORMER = ThreadLocal.withInitial(() -> {
+        try {
+            synchronized(TRANSFORMER_FACTORY) {
+                return TRANSFORMER_FACTORY.newTransformer();
+            }
+        } catch(TransformerConfigurationException ex) {
+            throw new WorkbookException(ex);
+        }
+    });
+
+
+    //------------------------------------------------------------------------------------------------
+    private XmlFactories() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * バイト配列を名前空間を有効にして DOM ドキュメントとして解析します。
+     * @param bytes XML のバイト配列
+     * @return DOM ドキュメント
+     * @throws SAXException 解析に失敗した場合
+     * @throws IOException 読み込みに失敗した場合
+     */
+    static Document parse(byte[] bytes) throws SAXException, IOException {
+
+        DocumentBuilder builder = DOCUMENT_BUILDER.get();
+        builder.reset();
+        return builder.parse(new ByteArrayInputStream(bytes));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * ノードを直列化します。出力の設定は既定の状態です。
+     * @param node 直列化するノード
+     * @param result 出力先
+     * @throws TransformerException 直列化に失敗した場合
+     */
+    static void transform(Node node, Result result) throws TransformerException {
+
+        transformer().transform(new DOMSource(node), result);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * このスレッドの Transformer を、出力の設定を既定に戻して返します。
+     * 返された Transformer は同じスレッドで、次に呼び出すまでの間だけ使用できます。
+     * @return Transformer
+     */
+    static Transformer transformer() {
+
+        Transformer transformer = TRANSFORMER.get();
+        transformer.reset();
+        return transformer;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 共有の XMLInputFactory を返します。設定を変更しないでください。
+     * @return XMLInputFactory
+     */
+    static XMLInputFactory inputFactory() {
+
+        return INPUT_FACTORY;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
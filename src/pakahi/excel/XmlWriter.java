@@ -0,0 +1,388 @@
+package pakahi.excel;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * SpreadsheetML のパーツを UTF-8 のバイト列として直接書き出します。Transformer や StAX は使用しません。
+ * バッファはスレッドごとに保持して使い回し、タグは呼び出し側が事前に用意したバイト列をそのまま書き込みます。
+ * 文字データのエスケープは、短い文字列についてエスケープ済みのバイト列をスレッドごとにキャッシュします。
+ * 出力ストリームを指定した場合は、バッファが一杯になるたびに書き出すため、バッファは書き込む内容の大きさによらず一定です。
+ * スレッドセーフではありません。
+ */
+final class XmlWriter {
+
+    // スレッドごとにキャッシュするエスケープ済みの文字列の数と、キャッシュする文字列の最大の長さ
+    private static final int CACHE_SIZE = 4096;
+    private static final int CACHEABLE_LENGTH = 128;
+
+    // 使い回すバッファの初期の大きさと、使い回す上限（これを超えたバッファは解放する）
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    private static final int RETAINED_CAPACITY = 4 * 1024 * 1024;
+
+    private static final byte[] AMP = "&amp;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LT = "&lt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] GT = "&gt;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] QUOT = "&quot;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CR = "&#13;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LF = "&#10;".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TAB = "&#9;".getBytes(StandardCharsets.US_ASCII);
+
+    private static final ThreadLocal<XmlWriter> WRITER = ThreadLocal.withInitial(XmlWriter::new);
+
+    private final Map<String, byte[]> escaped = new LinkedHashMap<>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final CellValueEncoder encoder = new CellValueEncoder();
+
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+    private boolean busy;
+
+    // バッファが一杯になったときの書き出し先。null の場合はバッファを広げる
+    private OutputStream output;
+
+
+    //------------------------------------------------------------------------------------------------
+    private XmlWriter() {
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * このスレッドの空の XmlWriter を返します。使い終わったら {@link #release()} を呼び出してください。
+     * 使用中に同じスレッドから呼び出された場合は、使い回さない新しい XmlWriter を返します。
+     * @return XmlWriter
+     */
+    static XmlWriter acquire() {
+
+        XmlWriter writer = WRITER.get();
+
+        if(writer.busy) {
+            return new XmlWriter();
+        }
+
+        writer.busy = true;
+        writer.size = 0;
+        return writer;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * このスレッドの空の XmlWriter を、バッファが一杯になるたびに出力ストリームに書き出すようにして返します。
+     * 書き込みを終えたら {@link #flush()} で残りを書き出し、{@link #release()} を呼び出してください。
+     * 書き出しに失敗した場合は {@link WorkbookException} が投げられます。
+     * @param output 出力ストリーム
+     * @return XmlWriter
+     */
+    static XmlWriter acquire(OutputStream output) {
+
+        XmlWriter writer = acquire();
+        writer.output = output;
+        return writer;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込みを終え、バッファを次の呼び出しで使い回せるようにします。大きくなりすぎたバッファは解放します。
+     */
+    void release() {
+
+        busy = false;
+        size = 0;
+        output = null;
+
+        if(buffer.length > RETAINED_CAPACITY) {
+            buffer = new byte[INITIAL_CAPACITY];
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字データとしてエスケープした UTF-8 のバイト列を返します。短い文字列はこのスレッドのキャッシュから返します。
+     * 返された配列は変更しないでください。
+     * @param value 文字列
+     * @return エスケープした UTF-8 のバイト列
+     */
+    static byte[] escape(String value) {
+
+        return WRITER.get().escaped(value);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込んだバイト数を返します。
+     * @return バイト数
+     */
+    int size() {
+
+        return size;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込んだ内容をバイト配列として返します。
+     * @return 書き込んだ内容の複製
+     */
+    byte[] toByteArray() {
+
+        return Arrays.copyOf(buffer, size);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 書き込んだ内容を出力ストリームに書き出します。
+     * @param output 出力ストリーム
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void writeTo(OutputStream output) throws IOException {
+
+        output.write(buffer, 0, size);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * バッファに残っている内容を、{@link #acquire(OutputStream)} で指定した出力ストリームに書き出します。
+     * @throws IOException 書き込みに失敗した場合
+     */
+    void flush() throws IOException {
+
+        if(output != null && size > 0) {
+            output.write(buffer, 0, size);
+            size = 0;
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 1 バイトを書き込みます。
+     * @param b バイト
+     * @return この XmlWriter
+     */
+    XmlWriter write(int b) {
+
+        ensure(1);
+        buffer[size++] = (byte)b;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * バイト列（事前に用意したタグなど）をそのまま書き込みます。
+     * @param bytes バイト列
+     * @return この XmlWriter
+     */
+    XmlWriter write(byte[] bytes) {
+
+        return write(bytes, 0, bytes.length);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * バイト列の一部をそのまま書き込みます。
+     * @param bytes バイト列
+     * @param offset 開始位置
+     * @param length 長さ
+     * @return この XmlWriter
+     */
+    XmlWriter write(byte[] bytes, int offset, int length) {
+
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 整数を 10 進数で書き込みます。
+     * @param value 整数
+     * @return この XmlWriter
+     */
+    XmlWriter writeLong(long value) {
+
+        encoder.encode(value);
+        return write(encoder.getBytes(), 0, encoder.length());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 行番号と列番号を A1 形式で書き込みます。
+     * @param row 行番号
+     * @param column 列番号
+     * @return この XmlWriter
+     */
+    XmlWriter writeReference(int row, int column) {
+
+        ensure(10);
+        size = CellReference.write(row, column, buffer, size);
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字列をエスケープせずに UTF-8 で書き込みます（要素名・属性名など）。
+     * @param value 文字列
+     * @return この XmlWriter
+     */
+    XmlWriter writeName(String value) {
+
+        return writeUtf8(value, false, false);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字列を文字データとしてエスケープして書き込みます。短い文字列はキャッシュしたバイト列を使います。
+     * @param value 文字列
+     * @return この XmlWriter
+     */
+    XmlWriter writeText(String value) {
+
+        if(value.length() <= CACHEABLE_LENGTH) {
+            return write(escaped(value));
+        }
+
+        return writeUtf8(value, true, false);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字の配列の一部を文字データとしてエスケープして書き込みます。
+     * @param chars 文字の配列
+     * @param offset 開始位置
+     * @param length 長さ
+     * @return この XmlWriter
+     */
+    XmlWriter writeText(char[] chars, int offset, int length) {
+
+        return writeUtf8(new String(chars, offset, length), true, false);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 文字列を属性値としてエスケープして書き込みます。引用符は含みません。
+     * @param value 文字列
+     * @return この XmlWriter
+     */
+    XmlWriter writeAttributeValue(String value) {
+
+        return writeUtf8(value, true, true);
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private byte[] escaped(String value) {
+
+        if(value.length() > CACHEABLE_LENGTH) {
+            return escapeToArray(value);
+        }
+
+        byte[] bytes = escaped.get(value);
+
+        if(bytes == null) {
+            bytes = escapeToArray(value);
+            escaped.put(value, bytes);
+        }
+
+        return bytes;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static byte[] escapeToArray(String value) {
+
+        byte[] bytes = new byte[value.length() * 6];
+        return Arrays.copyOf(bytes, encode(value, true, false, bytes, 0));
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private XmlWriter writeUtf8(String value, boolean escape, boolean attribute) {
+
+        // 1 文字あたり最大 6 バイト（&quot;）
+        ensure(value.length() * 6);
+        size = encode(value, escape, attribute, buffer, size);
+        return this;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * UTF-8 で書き込みます。文字データでは & < > と改行の \r を、属性値ではさらに " と改行・タブをエスケープします。
+     */
+    private static int encode(String value, boolean escape, boolean attribute, byte[] b, int p) {
+
+        int length = value.length();
+
+        for(int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+
+            if(c < 0x80) {
+                if(escape) {
+                    byte[] entity = null;
+                    switch(c) {
+                        case '&': entity = AMP; break;
+                        case '<': entity = LT; break;
+                        case '>': entity = GT; break;
+                        case '\r': entity = CR; break;
+                        case '"': entity = attribute ? QUOT : null; break;
+                        case '\n': entity = attribute ? LF : null; break;
+                        case '\t': entity = attribute ? TAB : null; break;
+                    }
+                    if(entity != null) {
+                        System.arraycopy(entity, 0, b, p, entity.length);
+                        p += entity.length;
+                        continue;
+                    }
+                }
+                b[p++] = (byte)c;
+            } else if(c < 0x800) {
+                b[p++] = (byte)(0xc0 | (c >> 6));
+                b[p++] = (byte)(0x80 | (c & 0x3f));
+            } else if(Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                b[p++] = (byte)(0xf0 | (cp >> 18));
+                b[p++] = (byte)(0x80 | ((cp >> 12) & 0x3f));
+                b[p++] = (byte)(0x80 | ((cp >> 6) & 0x3f));
+                b[p++] = (byte)(0x80 | (cp & 0x3f));
+            } else {
+                b[p++] = (byte)(0xe0 | (c >> 12));
+                b[p++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte)(0x80 | (c & 0x3f));
+            }
+        }
+
+        return p;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void ensure(int length) {
+
+        if(buffer.length - size >= length) {
+            return;
+        }
+
+        // 出力ストリームがあれば、バッファを広げる前に書き出して空ける
+        if(output != null && size > 0) {
+            try {
+                flush();
+            } catch(IOException ex) {
+                throw new WorkbookException(ex);
+            }
+            if(buffer.length >= length) {
+                return;
+            }
+        }
+
+        buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + length));
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------
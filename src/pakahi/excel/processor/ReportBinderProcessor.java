@@ -0,0 +1,523 @@
+package pakahi.excel.processor;
+
+import org.w3c.dom.NodeList;
+import pakahi.excel.CellReference;
+import javax.annotation.processing.*;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic;
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+
+
+//----------------------------------------------------------------------------------------------------
+/**
+ * {@code pakahi.excel.IReport} を実装するクラスごとに、リフレクションを使わない記入方法
+ * （{@code pakahi.excel.ReportBinder} のサブクラス）を生成する注釈プロセッサです。
+ * <p>
+ * 自動では登録されないため、使用する場合は javac の {@code -processor} で指定します。
+ * 不正なセルアドレスや、テンプレートに存在しないシート名はコンパイルエラーになります。
+ * シート名の検査には次のいずれかのオプションを指定します。
+ * <ul>
+ * <li>{@code -Apakahi.excel.template=<展開済み SpreadsheetML フォルダのパス>}</li>
+ * <li>{@code -Apakahi.excel.sheets=<カンマ区切りのシート名>}</li>
+ * </ul>
+ */
+@SupportedAnnotationTypes("*")
+@SupportedOptions({ReportBinderProcessor.TEMPLATE, ReportBinderProcessor.SHEETS})
+public class ReportBinderProcessor extends AbstractProcessor {
+
+    static final String TEMPLATE = "pakahi.excel.template";
+    static final String SHEETS = "pakahi.excel.sheets";
+
+    private static final String REPORT = "pakahi.excel.IReport";
+    private static final String RANGE = "pakahi.excel.Range";
+    private static final String RANGE_R1C1 = "pakahi.excel.RangeR1C1";
+    private static final String ROW_SUPPLIER = "pakahi.excel.IRowSupplier";
+
+    // 表領域として扱う型（要素は書き出すときに読み出す）
+    private static final String[] TABLE_TYPES = {
+        "java.lang.Iterable", "java.util.Iterator", "java.util.Spliterator", "java.util.stream.Stream", ROW_SUPPLIER
+    };
+
+    // 列ごとの値として表領域に記入する配列の型
+    private static final Set<String> COLUMN_TYPES = Set.of(
+        "double[]", "int[]", "long[]", "java.time.LocalDate[]", "java.lang.String[]", "double[][]"
+    );
+    private static final String SUFFIX = "_ReportBinder";
+
+    private static final int MAX_COLUMN = 16384;
+
+    // 宣言された型と、null を確認せずにそのまま渡せるか
+    private static final Map<String, Boolean> TYPED = new HashMap<>() {{
+        put("int", true);
+        put("long", true);
+        put("byte", true);
+        put("short", true);
+        put("double", true);
+        put("float", true);
+        put("boolean", true);
+        put("java.lang.String", false);
+        put("java.lang.Boolean", false);
+        put("java.time.LocalDateTime", false);
+        put("java.time.LocalDate", false);
+        put("java.time.LocalTime", false);
+        put("java.time.Instant", false);
+        put("java.math.BigDecimal", false);
+    }};
+
+    // ラッパー型はプリミティブ型に変換して渡す
+    private static final Map<String, String> UNBOXED = new HashMap<>() {{
+        put("java.lang.Integer", "int");
+        put("java.lang.Long", "long");
+        put("java.lang.Byte", "byte");
+        put("java.lang.Short", "short");
+        put("java.lang.Double", "double");
+        put("java.lang.Float", "float");
+    }};
+
+    private final Set<String> generated = new HashSet<>();
+    private Set<String> sheetNames;
+
+
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+
+        return SourceVersion.latestSupported();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public synchronized void init(ProcessingEnvironment processingEnv) {
+
+        super.init(processingEnv);
+        sheetNames = loadSheetNames();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+
+        TypeElement report = processingEnv.getElementUtils().getTypeElement(REPORT);
+        if(report == null) {
+            return false;
+        }
+
+        List<TypeElement> types = new ArrayList<>();
+        for(TypeElement type : ElementFilter.typesIn(roundEnv.getRootElements())) {
+            collect(type, types);
+        }
+
+        for(TypeElement type : types) {
+            if(isReport(type, report) && generated.add(type.getQualifiedName().toString())) {
+                generate(type, report);
+            }
+        }
+
+        return false;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static void collect(TypeElement type, List<TypeElement> types) {
+
+        types.add(type);
+
+        for(TypeElement member : ElementFilter.typesIn(type.getEnclosedElements())) {
+            collect(member, types);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private boolean isReport(TypeElement type, TypeElement report) {
+
+        if(type.getKind() != ElementKind.CLASS || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            return false;
+        }
+
+        Types types = processingEnv.getTypeUtils();
+        return types.isAssignable(types.erasure(type.asType()), report.asType());
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void generate(TypeElement type, TypeElement report) {
+
+        Messager messager = processingEnv.getMessager();
+
+        // 生成したクラスから参照できない型は対象外（実行時はリフレクションで記入する）
+        if( ! type.getTypeParameters().isEmpty() || ! isAccessible(type)) {
+            return;
+        }
+
+        Map<String, List<String>> cells = new LinkedHashMap<>();
+        Map<String, List<String>> tables = new LinkedHashMap<>();
+        List<String> columns = new ArrayList<>();
+        boolean valid = true;
+
+        for(VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            AnnotationMirror range = getAnnotation(field, RANGE);
+            AnnotationMirror rangeR1C1 = getAnnotation(field, RANGE_R1C1);
+
+            if(range == null && rangeR1C1 == null) {
+                continue;
+            }
+
+            if(field.getModifiers().contains(Modifier.PRIVATE)) {
+                messager.printMessage(Diagnostic.Kind.ERROR, "private なフィールドには記入できません: " + field.getSimpleName(), field);
+                valid = false;
+                continue;
+            }
+
+            String access = (field.getModifiers().contains(Modifier.STATIC) ? type.getQualifiedName() : "report") + "." + field.getSimpleName();
+
+            if(range != null) {
+                String sheet = (String)getValue(range, "sheet", "");
+                String address = (String)getValue(range, "range", "");
+                int[] a = parseAddress(address);
+
+                if(a == null) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "不正なセルアドレスです: " + address, field, range);
+                    valid = false;
+                    continue;
+                }
+                if(sheetNames != null && ! sheetNames.contains(sheet)) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "テンプレートに存在しないシートです: " + sheet, field, range);
+                    valid = false;
+                    continue;
+                }
+
+                String typeName = processingEnv.getTypeUtils().erasure(field.asType()).toString();
+
+                if(COLUMN_TYPES.contains(typeName)) {
+                    // 配列は要素をボクシングせずに、列ごとの値として記入する
+                    boolean inline = typeName.equals("java.lang.String[]") && (Boolean)getValue(range, "inlineString", false);
+                    tables.computeIfAbsent(sheet, k -> new ArrayList<>())
+                        .add("insertRows(worksheet, " + literal(address) + ", " + access + (inline ? ", true" : "") + ");");
+                } else if(isTable(field.asType())) {
+                    if( ! isReportTable(field.asType(), report)) {
+                        messager.printMessage(Diagnostic.Kind.ERROR, "表領域の要素は IReport を実装する必要があります: " + field.getSimpleName(), field);
+                        valid = false;
+                        continue;
+                    }
+                    tables.computeIfAbsent(sheet, k -> new ArrayList<>())
+                        .add("insertRows(worksheet, " + literal(address) + ", " + access + ");");
+                } else {
+                    boolean inline = (Boolean)getValue(range, "inlineString", false);
+                    String statement = setCellValue(field, access, String.valueOf(a[0]), String.valueOf(a[1]), inline);
+                    if(statement == null) {
+                        valid = false;
+                        continue;
+                    }
+                    cells.computeIfAbsent(sheet, k -> new ArrayList<>()).add(statement);
+                }
+            }
+
+            if(rangeR1C1 != null) {
+                int column = (Integer)getValue(rangeR1C1, "column", 1);
+
+                if(column < 1 || column > MAX_COLUMN) {
+                    messager.printMessage(Diagnostic.Kind.ERROR, "不正な列番号です: " + column, field, rangeR1C1);
+                    valid = false;
+                    continue;
+                }
+
+                boolean inline = (Boolean)getValue(rangeR1C1, "inlineString", false);
+                String statement = setCellValue(field, access, "row", column == 1 ? "column" : "column + " + (column - 1), inline);
+                if(statement == null) {
+                    valid = false;
+                    continue;
+                }
+                columns.add(statement);
+            }
+        }
+
+        if(valid) {
+            write(type, cells, tables, columns);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * 宣言された型に対応する setCellValue の呼び出しを返します。
+     * 型が定まらないフィールドは実行時の型で判定する ReportBinder.setCellValue に渡します。
+     */
+    private String setCellValue(VariableElement field, String access, String row, String column, boolean inline) {
+
+        TypeMirror type = field.asType();
+        String name = processingEnv.getTypeUtils().erasure(type).toString();
+
+        if(type.getKind() == TypeKind.CHAR) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "char 型には対応していません: " + field.getSimpleName(), field);
+            return null;
+        }
+
+        if(inline && name.equals("java.lang.String")) {
+            return "{ java.lang.String value = " + access + "; if(value != null) { worksheet.setInlineString(" + row + ", " + column + ", value); } }";
+        }
+
+        if(TYPED.containsKey(name)) {
+            if(TYPED.get(name)) {
+                String value = name.equals("boolean") ? "java.lang.Boolean.valueOf(" + access + ")" : access;
+                return "worksheet.setCellValue(" + row + ", " + column + ", " + value + ");";
+            }
+            return "{ " + name + " value = " + access + "; if(value != null) { worksheet.setCellValue(" + row + ", " + column + ", value); } }";
+        }
+
+        if(UNBOXED.containsKey(name)) {
+            return "{ " + name + " value = " + access + "; if(value != null) { worksheet.setCellValue(" + row + ", " + column + ", (" + UNBOXED.get(name) + ")value); } }";
+        }
+
+        // Object 以外の型は Object を受け取るオーバーロードを選ばせる（Object 型へのキャストは冗長なため付けない）
+        String value = name.equals("java.lang.Object") ? access : "(java.lang.Object)" + access;
+        return "setCellValue(worksheet, " + row + ", " + column + ", " + value + ", " + inline + ");";
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private void write(TypeElement type, Map<String, List<String>> cells, Map<String, List<String>> tables, List<String> columns) {
+
+        Elements elements = processingEnv.getElementUtils();
+        String packageName = elements.getPackageOf(type).getQualifiedName().toString();
+        String simpleName = getBinderSimpleName(type);
+        String typeName = type.getQualifiedName().toString();
+
+        Set<String> sheets = new LinkedHashSet<>(cells.keySet());
+        sheets.addAll(tables.keySet());
+
+        try(PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(
+                packageName.isEmpty() ? simpleName : packageName + "." + simpleName, type).openWriter())) {
+
+            if( ! packageName.isEmpty()) {
+                out.println("package " + packageName + ";");
+                out.println();
+            }
+
+            out.println("@javax.annotation.processing.Generated(\"" + ReportBinderProcessor.class.getName() + "\")");
+            out.println("public final class " + simpleName + " extends pakahi.excel.ReportBinder<" + typeName + "> {");
+            out.println();
+
+            StringJoiner names = new StringJoiner(", ");
+            sheets.forEach(s -> names.add(literal(s)));
+            out.println("    private static final java.util.Set<java.lang.String> SHEET_NAMES = java.util.Collections.unmodifiableSet(");
+            out.println("        new java.util.LinkedHashSet<>(java.util.Arrays.asList(" + names + ")));");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public java.util.Set<java.lang.String> getSheetNames() {");
+            out.println("        return SHEET_NAMES;");
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void bind(" + typeName + " report, java.lang.String sheetName, pakahi.excel.IWorksheet worksheet) {");
+            if( ! sheets.isEmpty()) {
+                out.println("        switch(sheetName) {");
+                for(String sheet : sheets) {
+                    out.println("        case " + literal(sheet) + ":");
+                    for(String statement : cells.getOrDefault(sheet, Collections.emptyList())) {
+                        out.println("            " + statement);
+                    }
+                    for(String statement : tables.getOrDefault(sheet, Collections.emptyList())) {
+                        out.println("            " + statement);
+                    }
+                    out.println("            break;");
+                }
+                out.println("        }");
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("    @Override");
+            out.println("    public void bindRow(" + typeName + " report, pakahi.excel.IWorksheet worksheet, int row, int column) {");
+            for(String statement : columns) {
+                out.println("        " + statement);
+            }
+            out.println("    }");
+            out.println();
+
+            out.println("}");
+
+        } catch(Exception ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "記入方法を生成できません: " + ex.getMessage(), type);
+        }
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /**
+     * 生成される記入方法のクラス名を返します。入れ子のクラスは外側のクラス名と _ で連結されます。
+     * 実行時の {@code ReportBinder.of} はこの名前でクラスを探します。
+     */
+    private static String getBinderSimpleName(TypeElement type) {
+
+        String name = type.getSimpleName().toString();
+
+        for(Element e = type.getEnclosingElement(); e instanceof TypeElement; e = e.getEnclosingElement()) {
+            name = e.getSimpleName() + "_" + name;
+        }
+
+        return name + SUFFIX;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static boolean isAccessible(TypeElement type) {
+
+        for(Element e = type; e instanceof TypeElement; e = e.getEnclosingElement()) {
+            if(e.getModifiers().contains(Modifier.PRIVATE) || ((TypeElement)e).getNestingKind() == NestingKind.LOCAL
+                || ((TypeElement)e).getNestingKind() == NestingKind.ANONYMOUS) {
+                return false;
+            }
+        }
+
+        return true;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private boolean isTable(TypeMirror type) {
+
+        if(type.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+
+        Types types = processingEnv.getTypeUtils();
+
+        for(String name : TABLE_TYPES) {
+            TypeElement table = processingEnv.getElementUtils().getTypeElement(name);
+            if(table != null && types.isAssignable(types.erasure(type), types.erasure(table.asType()))) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private boolean isReportTable(TypeMirror type, TypeElement report) {
+
+        Types types = processingEnv.getTypeUtils();
+
+        for(String name : TABLE_TYPES) {
+            TypeElement table = processingEnv.getElementUtils().getTypeElement(name);
+            if(table == null) {
+                continue;
+            }
+            DeclaredType reports = types.getDeclaredType(table, types.getWildcardType(report.asType(), null));
+            if(types.isAssignable(type, reports)) {
+                return true;
+            }
+        }
+
+        return false;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static AnnotationMirror getAnnotation(Element element, String name) {
+
+        for(AnnotationMirror a : element.getAnnotationMirrors()) {
+            if(((TypeElement)a.getAnnotationType().asElement()).getQualifiedName().contentEquals(name)) {
+                return a;
+            }
+        }
+
+        return null;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static Object getValue(AnnotationMirror annotation, String name, Object defaultValue) {
+
+        for(Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> e : annotation.getElementValues().entrySet()) {
+            if(e.getKey().getSimpleName().contentEquals(name)) {
+                return e.getValue().getValue();
+            }
+        }
+
+        return defaultValue;
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * A1 形式のアドレスを行番号・列番号に変換します。シートの範囲外であれば null を返します。
+     */
+    private static int[] parseAddress(String address) {
+
+        // 実行時と同じ規則（小文字・$ 付きの絶対参照を含む）で解析する
+        long reference = CellReference.parse(address);
+
+        if(reference == CellReference.INVALID) {
+            return null;
+        }
+
+        return new int[] { CellReference.row(reference), CellReference.column(reference) };
+
+    }
+    //------------------------------------------------------------------------------------------------
+    private static String literal(String value) {
+
+        StringBuilder sb = new StringBuilder("\"");
+
+        for(char c : value.toCharArray()) {
+            if(c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if(c < 0x20 || c > 0x7e) {
+                sb.append(String.format("\\u%04x", (int)c));
+            } else {
+                sb.append(c);
+            }
+        }
+
+        return sb.append('"').toString();
+
+    }
+    //------------------------------------------------------------------------------------------------
+    /*
+     * オプションで指定されたテンプレートまたはシート名の一覧を読み込みます。
+     * どちらも指定されていなければ null を返し、シート名は検査しません。
+     */
+    private Set<String> loadSheetNames() {
+
+        Map<String, String> options = processingEnv.getOptions();
+
+        if(options.containsKey(SHEETS)) {
+            Set<String> names = new HashSet<>();
+            for(String name : options.get(SHEETS).split(",")) {
+                names.add(name.trim());
+            }
+            return names;
+        }
+
+        if(options.containsKey(TEMPLATE)) {
+            Path workbook = Paths.get(options.get(TEMPLATE), "xl", "workbook.xml");
+
+            try(InputStream input = Files.newInputStream(workbook)) {
+                DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+                factory.setNamespaceAware(true);
+                NodeList items = factory.newDocumentBuilder().parse(input).getElementsByTagNameNS("*", "sheet");
+
+                Set<String> names = new HashSet<>();
+                for(int i = 0; i < items.getLength(); i++) {
+                    names.add(((org.w3c.dom.Element)items.item(i)).getAttribute("name"));
+                }
+                return names;
+
+            } catch(Exception ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "テンプレートを読み込めません: " + workbook);
+            }
+        }
+
+        return null;
+
+    }
+    //------------------------------------------------------------------------------------------------
+
+}
+//----------------------------------------------------------------------------------------------------